@@ -2,6 +2,13 @@ package com.pikozh.testtasks.customdatabasetask.configs;
 
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
 
 /**
  * @author a.pikozh
@@ -11,6 +18,98 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 public class DatabaseProperties {
 
 	private String location;
-	private int maxRowsInMemory;
+	/**
+	 * Memory shared by all tables for in-memory table rewrites, larger rewrites are streamed through a temporary
+	 * file. 1/8 of max heap by default
+	 */
+	private DataSize memoryBudget;
+	/** Read view is closed automatically if it is not used for this time */
+	private Duration readViewTimeout = Duration.ofMinutes(1);
+	/**
+	 * Regular expressions of table names, which are held in memory (off heap). Existing compressed tables
+	 * stay compressed
+	 */
+	private List<Pattern> hotTables = new ArrayList<>();
+	/** Hot tables are held in direct buffers. False holds them in heap buffers, to compare GC pauses */
+	private boolean hotTablesOffHeap = true;
+	private Compression compression = new Compression();
+	private Snapshot snapshot = new Snapshot();
+	private Transactions transactions = new Transactions();
+	private Deletes deletes = new Deletes();
+	private Admission admission = new Admission();
+	private Warmup warmup = new Warmup();
+
+	/**
+	 * Block compression of table files. Applies to newly created tables only, existing plain tables stay plain.
+	 */
+	@Data
+	public static class Compression {
+		private boolean enabled;
+		/** Number of rows packed into one compressed block */
+		private int blockRows = 64;
+		/** Deflater level for freshly written (hot) blocks */
+		private int level = Deflater.BEST_SPEED;
+		/** Deflater level used to recompress blocks during compaction (cold data) */
+		private int coldLevel = Deflater.BEST_COMPRESSION;
+		/** Compaction starts when size of outdated block versions exceeds live data size multiplied by this ratio */
+		private double compactionGarbageRatio = 1.0;
+		/** How often sealed blocks are recompressed with the cold level, if they are not yet */
+		private Duration recompressionInterval = Duration.ofMinutes(1);
+		/** Blocks of a table recompressed in one run, so its writers do not wait for long */
+		private int recompressionBlocks = 256;
+	}
+
+	@Data
+	public static class Snapshot {
+		/** Directory for snapshots. Must be on the same file system as database location to use hard links */
+		private String location;
+	}
+
+	@Data
+	public static class Transactions {
+		/** Transaction log is truncated after table files are flushed, when it grows beyond this size */
+		private DataSize checkpointLogSize = DataSize.ofMegabytes(16);
+	}
+
+	@Data
+	public static class Deletes {
+		/** How often tables are checked for deleted rows to erase */
+		private Duration compactionInterval = Duration.ofMinutes(1);
+		/** Table is rewritten to erase deleted rows when it has at least this number of them */
+		private int compactionMinRows = 64;
+	}
+
+	/**
+	 * Limits of operations coming to the database. Rejected operations fail fast with 429 status.
+	 */
+	@Data
+	public static class Admission {
+		private boolean enabled = true;
+		/** Operations per second allowed for each table, 0 means unlimited */
+		private double tableRate;
+		/** Operations a table can do at once after being idle */
+		private int tableBurst = 100;
+		/** Operations executed at once, others wait in queues. Reads are taken from the queue before writes */
+		private int maxConcurrent = 32;
+		/** Part of maxConcurrent which writes can take, so table rewrites never occupy all of them */
+		private int maxConcurrentWrites = 4;
+		private int readQueueCapacity = 256;
+		private int writeQueueCapacity = 64;
+		/** Queued operation is rejected if it is not started within this time */
+		private Duration maxWait = Duration.ofSeconds(5);
+	}
+
+	/**
+	 * Opening of existing tables at startup, so the first requests do not pay for reading them. Application
+	 * reports readiness when it is done.
+	 */
+	@Data
+	public static class Warmup {
+		private boolean enabled = true;
+		/** Tables opened at once */
+		private int threads = 4;
+		/** Bytes read from the end of each table file (latest rows) into the OS page cache */
+		private DataSize prefetchSize = DataSize.ofMegabytes(64);
+	}
 
 }
@@ -0,0 +1,74 @@
+package com.pikozh.testtasks.customdatabasetask.controllers;
+
+import com.pikozh.testtasks.customdatabasetask.model.AdmissionStats;
+import com.pikozh.testtasks.customdatabasetask.model.CompressionStats;
+import com.pikozh.testtasks.customdatabasetask.model.ReadCoalescingStats;
+import com.pikozh.testtasks.customdatabasetask.model.SnapshotInfo;
+import com.pikozh.testtasks.customdatabasetask.model.WarmUpStats;
+import com.pikozh.testtasks.customdatabasetask.services.SnapshotService;
+import com.pikozh.testtasks.customdatabasetask.services.StatisticsService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+/**
+ * @author a.pikozh
+ */
+@Slf4j
+@RestController
+@RequestMapping("/admin")
+public class AdminRestController {
+
+	private final SnapshotService snapshotService;
+	private final StatisticsService statisticsService;
+
+	@Autowired
+	public AdminRestController(SnapshotService snapshotService, StatisticsService statisticsService) {
+		this.snapshotService = snapshotService;
+		this.statisticsService = statisticsService;
+	}
+
+	@PostMapping("/snapshots")
+	public SnapshotInfo createSnapshot() {
+		log.info("Snapshot requested");
+		return snapshotService.createSnapshot();
+	}
+
+	@GetMapping("/snapshots")
+	public List<SnapshotInfo> listSnapshots() {
+		return snapshotService.listSnapshots();
+	}
+
+	@PostMapping("/snapshots/{snapshotId}/restore")
+	public void restoreSnapshot(@PathVariable("snapshotId") String snapshotId) {
+		log.info("Restore of snapshot '{}' requested", snapshotId);
+		snapshotService.restoreSnapshot(snapshotId);
+	}
+
+	@DeleteMapping("/snapshots/{snapshotId}")
+	public void deleteSnapshot(@PathVariable("snapshotId") String snapshotId) {
+		snapshotService.deleteSnapshot(snapshotId);
+	}
+
+	@GetMapping("/stats/reads")
+	public ReadCoalescingStats getReadCoalescingStats() {
+		return statisticsService.getReadCoalescingStats();
+	}
+
+	@GetMapping("/stats/admission")
+	public AdmissionStats getAdmissionStats() {
+		return statisticsService.getAdmissionStats();
+	}
+
+	@GetMapping("/stats/compression")
+	public CompressionStats getCompressionStats() {
+		return statisticsService.getCompressionStats();
+	}
+
+	@GetMapping("/stats/warmup")
+	public WarmUpStats getWarmUpStats() {
+		return statisticsService.getWarmUpStats();
+	}
+}
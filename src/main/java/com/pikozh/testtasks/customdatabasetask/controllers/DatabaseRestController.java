@@ -1,16 +1,14 @@
 package com.pikozh.testtasks.customdatabasetask.controllers;
 
-import com.pikozh.testtasks.customdatabasetask.model.ErrorMessage;
-import com.pikozh.testtasks.customdatabasetask.model.exceptions.NotFoundException;
+import com.pikozh.testtasks.customdatabasetask.model.TransactionOperation;
 import com.pikozh.testtasks.customdatabasetask.services.Database;
+import com.pikozh.testtasks.customdatabasetask.services.Transaction;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.web.context.request.WebRequest;
 
-import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author a.pikozh
@@ -27,6 +25,24 @@ public class DatabaseRestController {
 		this.db = db;
 	}
 
+	/**
+	 * Commits the operations as a single transaction.
+	 *
+	 * @return row IDs of inserted / updated rows in the order of operations
+	 */
+	@PostMapping
+	public List<Integer> commitTransaction(@RequestBody List<TransactionOperation> operations) {
+		Transaction transaction = db.beginTransaction();
+		for (TransactionOperation operation : operations) {
+			if (operation.getRowId() == null) {
+				transaction.insert(operation.getTable(), operation.getValues());
+			} else {
+				transaction.update(operation.getTable(), operation.getRowId(), operation.getValues());
+			}
+		}
+		return transaction.commit();
+	}
+
 	@PostMapping("/{tableName}")
 	public int insert(
 			@PathVariable("tableName") String tableName,
@@ -42,6 +58,38 @@ public class DatabaseRestController {
 		return db.select(tableName, rowId);
 	}
 
+	@GetMapping("/{tableName}/batch")
+	public Map<Integer, List<String>> selectBatch(
+			@PathVariable(value = "tableName") String tableName,
+			@RequestParam(value = "ids") List<Integer> rowIds,
+			@RequestParam(value = "readView", required = false) Long readView) {
+
+		return db.select(tableName, rowIds, readView);
+	}
+
+	@GetMapping("/{tableName}/scan")
+	public Map<Integer, List<String>> scan(
+			@PathVariable(value = "tableName") String tableName,
+			@RequestParam(value = "from", defaultValue = "0") int fromRowId,
+			@RequestParam(value = "limit", defaultValue = "100") int limit,
+			@RequestParam(value = "readView", required = false) Long readView) {
+
+		return db.scan(tableName, fromRowId, limit, readView);
+	}
+
+	@PostMapping("/{tableName}/readviews")
+	public long openReadView(@PathVariable(value = "tableName") String tableName) {
+		return db.openReadView(tableName);
+	}
+
+	@DeleteMapping("/{tableName}/readviews/{readView}")
+	public void closeReadView(
+			@PathVariable(value = "tableName") String tableName,
+			@PathVariable(value = "readView") long readView) {
+
+		db.closeReadView(tableName, readView);
+	}
+
 	@PutMapping("/{tableName}/{rowId}")
 	public void update(
 			@PathVariable(value = "tableName") String tableName,
@@ -51,28 +99,11 @@ public class DatabaseRestController {
 		db.update(tableName, rowId, data);
 	}
 
-	@ExceptionHandler(NotFoundException.class)
-	@ResponseStatus(value = HttpStatus.NOT_FOUND)
-	public ErrorMessage resourceNotFoundException(NotFoundException ex, WebRequest request) {
-		ErrorMessage message = new ErrorMessage(
-				HttpStatus.NOT_FOUND.value(),
-				new Date(),
-				ex.getMessage(),
-				request.getDescription(false));
-		log.error("REST Not Found error reported: {}", message);
-		return message;
-	}
+	@DeleteMapping("/{tableName}/{rowId}")
+	public void delete(
+			@PathVariable(value = "tableName") String tableName,
+			@PathVariable(value = "rowId") int rowId) {
 
-	@ExceptionHandler(Exception.class)
-	@ResponseStatus(value = HttpStatus.INTERNAL_SERVER_ERROR)
-	public ErrorMessage globalExceptionHandler(Exception ex, WebRequest request) {
-		ErrorMessage message = new ErrorMessage(
-				HttpStatus.INTERNAL_SERVER_ERROR.value(),
-				new Date(),
-				ex.getMessage(),
-				request.getDescription(false));
-
-		log.error("REST General error reported: {}", message);
-		return message;
+		db.delete(tableName, rowId);
 	}
 }
@@ -0,0 +1,60 @@
+package com.pikozh.testtasks.customdatabasetask.controllers;
+
+import com.pikozh.testtasks.customdatabasetask.model.ErrorMessage;
+import com.pikozh.testtasks.customdatabasetask.model.exceptions.NotFoundException;
+import com.pikozh.testtasks.customdatabasetask.model.exceptions.TooManyRequestsException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.context.request.WebRequest;
+
+import java.util.Date;
+
+/**
+ * Error responses shared by all REST controllers.
+ *
+ * @author a.pikozh
+ */
+@Slf4j
+@RestControllerAdvice
+public class RestExceptionHandler {
+
+	@ExceptionHandler(NotFoundException.class)
+	@ResponseStatus(value = HttpStatus.NOT_FOUND)
+	public ErrorMessage resourceNotFoundException(NotFoundException ex, WebRequest request) {
+		ErrorMessage message = new ErrorMessage(
+				HttpStatus.NOT_FOUND.value(),
+				new Date(),
+				ex.getMessage(),
+				request.getDescription(false));
+		log.error("REST Not Found error reported: {}", message);
+		return message;
+	}
+
+	@ExceptionHandler(TooManyRequestsException.class)
+	@ResponseStatus(value = HttpStatus.TOO_MANY_REQUESTS)
+	public ErrorMessage tooManyRequestsException(TooManyRequestsException ex, WebRequest request) {
+		ErrorMessage message = new ErrorMessage(
+				HttpStatus.TOO_MANY_REQUESTS.value(),
+				new Date(),
+				ex.getMessage(),
+				request.getDescription(false));
+		log.warn("REST Too Many Requests error reported: {}", message);
+		return message;
+	}
+
+	@ExceptionHandler(Exception.class)
+	@ResponseStatus(value = HttpStatus.INTERNAL_SERVER_ERROR)
+	public ErrorMessage globalExceptionHandler(Exception ex, WebRequest request) {
+		ErrorMessage message = new ErrorMessage(
+				HttpStatus.INTERNAL_SERVER_ERROR.value(),
+				new Date(),
+				ex.getMessage(),
+				request.getDescription(false));
+
+		log.error("REST General error reported: {}", message);
+		return message;
+	}
+}
@@ -0,0 +1,33 @@
+package com.pikozh.testtasks.customdatabasetask.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * @author a.pikozh
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class AdmissionStats {
+	private QueueStats reads;
+	private QueueStats writes;
+	/** Operations rejected by table rate limits */
+	private long rateLimited;
+
+	@Data
+	@AllArgsConstructor
+	@NoArgsConstructor
+	public static class QueueStats {
+		/** Operations being executed now */
+		private int running;
+		/** Operations waiting in the queue now */
+		private int queueDepth;
+		private long admitted;
+		/** Operations rejected because the queue was full or the wait timed out */
+		private long rejected;
+		private double averageWaitMillis;
+		private double maxWaitMillis;
+	}
+}
@@ -0,0 +1,22 @@
+package com.pikozh.testtasks.customdatabasetask.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * @author a.pikozh
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class CompressionStats {
+	/** Open compressed tables */
+	private int tables;
+	/** Size of rows in compressed blocks of the tables, uncompressed tails are not included */
+	private long rawSize;
+	/** Size of the latest versions of the blocks */
+	private long compressedSize;
+	/** Raw size per compressed size, 1.0 means no compression */
+	private double compressionRatio;
+}
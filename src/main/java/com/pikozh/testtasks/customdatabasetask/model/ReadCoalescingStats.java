@@ -0,0 +1,20 @@
+package com.pikozh.testtasks.customdatabasetask.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * @author a.pikozh
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ReadCoalescingStats {
+	/** Single row selects requested */
+	private long requests;
+	/** Selects which actually read the table, others shared their results */
+	private long reads;
+	/** Requests per read, 1.0 means no coalescing */
+	private double coalescingRatio;
+}
@@ -0,0 +1,21 @@
+package com.pikozh.testtasks.customdatabasetask.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * @author a.pikozh
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class SnapshotInfo {
+	private String id;
+	private Date created;
+	private List<String> tables;
+	private long size;
+}
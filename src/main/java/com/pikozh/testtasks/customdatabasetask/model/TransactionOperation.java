@@ -0,0 +1,21 @@
+package com.pikozh.testtasks.customdatabasetask.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Single write of a batch transaction: update of the given row or insert if row ID is not set.
+ *
+ * @author a.pikozh
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class TransactionOperation {
+	private String table;
+	private Integer rowId;
+	private List<String> values;
+}
@@ -0,0 +1,24 @@
+package com.pikozh.testtasks.customdatabasetask.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * @author a.pikozh
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class WarmUpStats {
+	/** True when all tables found at startup are opened (or warm-up is disabled) */
+	private boolean done;
+	/** Tables found in the database location at startup */
+	private int tables;
+	/** Tables opened and prefetched */
+	private int warmed;
+	/** Tables which failed to open, they are opened again on the first request */
+	private int failed;
+	/** Time since warm-up start, or its duration when it is done */
+	private long elapsedMillis;
+}
@@ -0,0 +1,16 @@
+package com.pikozh.testtasks.customdatabasetask.model.exceptions;
+
+/**
+ * Exception thrown when an operation is rejected by admission control, the client should retry later.
+ */
+@SuppressWarnings("serial")
+public class TooManyRequestsException extends RuntimeException {
+	/**
+	 * Constructs a new exception with the specified detail message.
+	 *
+	 * @param message the detail message
+	 */
+	public TooManyRequestsException(String message) {
+		super(message);
+	}
+}
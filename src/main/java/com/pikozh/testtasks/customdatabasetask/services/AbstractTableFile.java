@@ -0,0 +1,588 @@
+package com.pikozh.testtasks.customdatabasetask.services;
+
+import com.pikozh.testtasks.customdatabasetask.configs.DatabaseProperties;
+import com.pikozh.testtasks.customdatabasetask.model.exceptions.DatabaseException;
+import com.pikozh.testtasks.customdatabasetask.model.exceptions.NotFoundException;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Common part of the table storage formats: versioning, locking, file naming and error reporting.
+ *
+ * <p>Table files are only appended to or replaced atomically with {@link java.nio.file.Files#move}, but never
+ * rewritten in place, as snapshots keep hard links to them.
+ *
+ * <p>Every modification publishes new immutable {@link Version} with the next sequence number. Readers pin
+ * a version (and its {@link DataFile}) without locking, so writers never wait for readers, and long reads see
+ * consistent state. Read views let clients keep a version pinned between requests; replaced files are closed
+ * once no version references them anymore.
+ *
+ * <p>Transaction holds back versions of its tables ({@link #holdVersions}) while it writes, and then makes the latest
+ * versions of all its tables visible at once ({@link #publishHeld}). So readers see either none or all of its writes.
+ *
+ * <p>Row IDs are positions in the table, so deleted rows are not removed. Their IDs are appended to the tombstone
+ * log ({@code _$del}) and kept in a bitset of every version. Contents of deleted rows are erased later by
+ * {@link #purgeDeleted}, then "purged" line is appended to the log.
+ *
+ * @param <V> version type of the storage format
+ * @author a.pikozh
+ */
+@Slf4j
+abstract class AbstractTableFile<V extends AbstractTableFile.Version> {
+
+	static final String DELETED_SUFFIX = "_$del";
+	private static final String PURGED = "purged";
+	// Shared by all tables, so held versions of several tables are made visible at once. Readers read the visible
+	// version optimistically, and wait only if it is being changed
+	private static final StampedLock PUBLICATION_LOCK = new StampedLock();
+
+	/**
+	 * Immutable state of a table.
+	 */
+	static class Version {
+		final long sequence;
+		final int rowCount;
+		final DataFile file;
+		// Set on publishing, never modified after that
+		BitSet deleted;
+
+		Version(long sequence, int rowCount, DataFile file) {
+			this.sequence = sequence;
+			this.rowCount = rowCount;
+			this.file = file;
+		}
+	}
+
+	private static class ReadView<V> {
+		final V version;
+		int holders = 1;
+		long expiresAt;
+
+		ReadView(V version) {
+			this.version = version;
+		}
+	}
+
+	/**
+	 * Update waiting for the write lock. Any waiting thread which gets the lock applies all queued updates.
+	 */
+	private static class PendingUpdate {
+		final int rowId;
+		final List<String> values;
+		boolean done;
+		RuntimeException error;
+
+		PendingUpdate(int rowId, List<String> values) {
+			this.rowId = rowId;
+			this.values = values;
+		}
+	}
+
+	private final Lock writeLock = new ReentrantLock();
+	private final Queue<PendingUpdate> pendingUpdates = new ConcurrentLinkedQueue<>();
+	private final Map<Long, ReadView<V>> readViews = new HashMap<>();
+	private final long readViewTimeout;
+	// Visible to readers
+	private volatile V current;
+	// Latest version, which writers build on. Differs from the visible one only while versions are held
+	private volatile V latest;
+	private boolean held;
+	private final Path deletedLogPath;
+	// Replaced with a modified copy on delete, as versions share it
+	private BitSet deleted = new BitSet();
+	private BitSet notPurged = new BitSet();
+	protected final String tableName;
+	protected final DatabaseProperties properties;
+
+	AbstractTableFile(@NonNull final String tableName,
+					  @NonNull final DatabaseProperties properties) {
+		this.tableName = tableName;
+		this.properties = properties;
+		this.readViewTimeout = properties.getReadViewTimeout().toNanos();
+		this.deletedLogPath = resolvePath(properties, tableName + DELETED_SUFFIX);
+		loadDeleted();
+	}
+
+	/**
+	 * Resolves a file inside the database location. Service files use suffixes with "$", which is not allowed
+	 * in table names, so they never clash with table files.
+	 */
+	static Path resolvePath(DatabaseProperties properties, String fileName) {
+		String location = properties.getLocation();
+		return Path.of(location.endsWith("/") ? location + fileName : location + "/" + fileName);
+	}
+
+	int insert(List<String> values) {
+		return insertAll(Collections.singletonList(values));
+	}
+
+	/**
+	 * Appends the rows with a single write.
+	 *
+	 * @return ID of the first inserted row
+	 */
+	abstract int insertAll(List<List<String>> rows);
+
+	/**
+	 * Updates queued by concurrent callers are coalesced into a single {@link #updateAll} call, so they cost one
+	 * table rewrite instead of one rewrite each.
+	 */
+	void update(int rowId, List<String> values) throws NotFoundException {
+		PendingUpdate update = new PendingUpdate(rowId, values);
+		pendingUpdates.add(update);
+		try (LockWrapper lock = acquireWriteLock()) {
+			if (!update.done) {
+				applyPendingUpdates();
+			}
+		}
+		if (update.error != null) {
+			throw update.error;
+		}
+	}
+
+	private void applyPendingUpdates() {
+		List<PendingUpdate> updates = new ArrayList<>();
+		Map<Integer, List<String>> rows = new HashMap<>();
+		final int rowCount = getRowCount();
+		for (PendingUpdate update; (update = pendingUpdates.poll()) != null; ) {
+			updates.add(update);
+			if (update.rowId < 0 || update.rowId >= rowCount || isDeleted(update.rowId)) {
+				update.error = createNotFound(update.rowId);
+			} else {
+				// Later update of the same row wins, as if they were applied one by one
+				rows.put(update.rowId, update.values);
+			}
+		}
+		try {
+			if (!rows.isEmpty()) {
+				updateAll(rows);
+			}
+			if (updates.size() > 1) {
+				log.debug("Coalesced {} updates of '{}' into one", updates.size(), tableName);
+			}
+		} catch (RuntimeException e) {
+			updates.stream().filter(update -> update.error == null).forEach(update -> update.error = e);
+		} catch (Error e) {
+			// Other callers must not return as if their rows were written, this caller gets the error itself
+			DatabaseException error = new DatabaseException(
+					String.format("Update of table '%s' failed: %s", tableName, e), e);
+			updates.stream().filter(update -> update.error == null).forEach(update -> update.error = error);
+			throw e;
+		} finally {
+			updates.forEach(update -> update.done = true);
+		}
+	}
+
+	/**
+	 * Replaces the rows with a single table rewrite.
+	 *
+	 * @param rows new values by row ID
+	 */
+	abstract void updateAll(Map<Integer, List<String>> rows) throws NotFoundException;
+
+	/**
+	 * Flushes table files to the storage device.
+	 */
+	abstract void force();
+
+	/**
+	 * Reads the end of the current data file, so its latest rows are in the OS page cache before the first
+	 * requests come.
+	 *
+	 * @param maxBytes bytes to read at most
+	 */
+	void warmUp(long maxBytes) {
+		V version = pinCurrent();
+		try {
+			FileChannel channel = version.file.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+			long position = Math.max(channel.size() - maxBytes, 0);
+			for (int n; (n = channel.read(buffer, position)) > 0; position += n) {
+				buffer.clear();
+			}
+		} catch (IOException e) {
+			log.error(e.getMessage(), e);
+			throw createInternalError(e);
+		} finally {
+			version.file.release();
+		}
+	}
+
+	/**
+	 * Recompresses data, which is not modified anymore, with a higher compression level. Nothing to do
+	 * in uncompressed formats.
+	 *
+	 * @param maxBlocks blocks to recompress at most, so the write lock is not held for long
+	 * @return number of recompressed blocks
+	 */
+	int recompressCold(int maxBlocks) {
+		return 0;
+	}
+
+	/**
+	 * @return the same table state with another sequence number
+	 */
+	protected abstract V copyVersion(V version, long sequence);
+
+	/**
+	 * Marks the row deleted without rewriting the table.
+	 */
+	void delete(int rowId) throws NotFoundException {
+		try (LockWrapper lock = acquireWriteLock()) {
+			V version = latest;
+			checkRowExists(version, rowId);
+			Files.writeString(deletedLogPath, rowId + System.lineSeparator(),
+					StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+			deleted = (BitSet) deleted.clone();
+			deleted.set(rowId);
+			notPurged.set(rowId);
+			publish(copyVersion(version, version.sequence + 1));
+		} catch (IOException e) {
+			log.error(e.getMessage(), e);
+			throw createInternalError(e);
+		}
+	}
+
+	boolean isDeleted(int rowId) {
+		return latest.deleted.get(rowId);
+	}
+
+	/**
+	 * Erases contents of deleted rows with one table rewrite, if there are at least the given number of them.
+	 *
+	 * @return number of erased rows
+	 */
+	int purgeDeleted(int minRows) {
+		try (LockWrapper lock = acquireWriteLock()) {
+			final int count = notPurged.cardinality();
+			if (count == 0 || count < minRows) {
+				return 0;
+			}
+			Map<Integer, List<String>> rows = new HashMap<>();
+			notPurged.stream().forEach(rowId -> rows.put(rowId, Collections.emptyList()));
+			updateAll(rows);
+			Files.writeString(deletedLogPath, PURGED + System.lineSeparator(), StandardOpenOption.APPEND);
+			notPurged = new BitSet();
+			log.info("Contents of {} deleted rows of '{}' erased", count, tableName);
+			return count;
+		} catch (IOException e) {
+			log.error(e.getMessage(), e);
+			throw createInternalError(e);
+		}
+	}
+
+	private void loadDeleted() {
+		if (!Files.exists(deletedLogPath)) {
+			return;
+		}
+		try (Stream<String> lines = Files.lines(deletedLogPath)) {
+			lines.forEach(line -> {
+				if (line.equals(PURGED)) {
+					notPurged.clear();
+				} else if (!line.isEmpty()) {
+					deleted.set(Integer.parseInt(line));
+					notPurged.set(Integer.parseInt(line));
+				}
+			});
+		} catch (IOException | NumberFormatException e) {
+			log.error(e.getMessage(), e);
+			throw createCorruptedTableError();
+		}
+	}
+
+	int getRowCount() {
+		return latest.rowCount;
+	}
+
+	/**
+	 * @return sequence of the latest version, it changes on every modification
+	 */
+	long getSequence() {
+		return readCurrent().sequence;
+	}
+
+	/**
+	 * Reads packed rows of the version.
+	 *
+	 * @param rowIds existing row IDs in ascending order
+	 * @param consumer receives packed row and its ID
+	 */
+	protected abstract void readRows(V version, int[] rowIds, ObjIntConsumer<String> consumer) throws IOException;
+
+	List<String> select(int rowId) throws NotFoundException {
+		return select(Collections.singletonList(rowId), null).get(rowId);
+	}
+
+	/**
+	 * @param readView sequence of an open read view, or null to read the latest version
+	 * @return rows by ID in ascending order
+	 */
+	Map<Integer, List<String>> select(Collection<Integer> rowIds, Long readView) throws NotFoundException {
+		V version = pin(readView);
+		try {
+			int[] sortedRowIds = rowIds.stream().mapToInt(Integer::intValue).sorted().distinct().toArray();
+			for (int rowId : sortedRowIds) {
+				checkRowExists(version, rowId);
+			}
+			return readRows(version, sortedRowIds);
+		} finally {
+			version.file.release();
+		}
+	}
+
+	/**
+	 * @param readView sequence of an open read view, or null to read the latest version
+	 * @return up to limit rows starting from the given row ID, deleted rows are skipped
+	 */
+	Map<Integer, List<String>> scan(int fromRowId, int limit, Long readView) throws NotFoundException {
+		V version = pin(readView);
+		try {
+			int[] rowIds = new int[Math.max(0, Math.min(limit, version.rowCount))];
+			int count = 0;
+			for (int rowId = version.deleted.nextClearBit(Math.max(fromRowId, 0));
+				 rowId < version.rowCount && count < rowIds.length;
+				 rowId = version.deleted.nextClearBit(rowId + 1)) {
+				rowIds[count++] = rowId;
+			}
+			return readRows(version, Arrays.copyOf(rowIds, count));
+		} finally {
+			version.file.release();
+		}
+	}
+
+	private Map<Integer, List<String>> readRows(V version, int[] rowIds) {
+		Map<Integer, List<String>> rows = new LinkedHashMap<>();
+		try {
+			readRows(version, rowIds, (row, rowId) -> rows.put(rowId, RowFormat.unpackValues(row)));
+		} catch (IOException e) {
+			log.error(e.getMessage(), e);
+			throw createInternalError(e);
+		}
+		return rows;
+	}
+
+	/**
+	 * Pins the latest version until {@link #closeReadView} is called or the view is not used for
+	 * {@link DatabaseProperties#getReadViewTimeout()}.
+	 *
+	 * @return sequence of the pinned version
+	 */
+	long openReadView() {
+		V version = pinCurrent();
+		synchronized (readViews) {
+			expireReadViews();
+			ReadView<V> view = readViews.get(version.sequence);
+			if (view != null) {
+				view.holders++;
+				version.file.release();
+			} else {
+				view = new ReadView<>(version);
+				readViews.put(version.sequence, view);
+			}
+			view.expiresAt = System.nanoTime() + readViewTimeout;
+		}
+		return version.sequence;
+	}
+
+	void closeReadView(long readView) throws NotFoundException {
+		synchronized (readViews) {
+			ReadView<V> view = readViews.get(readView);
+			if (view == null) {
+				throw createReadViewNotFound(readView);
+			}
+			if (--view.holders == 0) {
+				readViews.remove(readView);
+				view.version.file.release();
+			}
+		}
+	}
+
+	/**
+	 * Releases the files of the table. Must be called when the table is not used anymore.
+	 */
+	void close() {
+		synchronized (readViews) {
+			readViews.values().forEach(view -> view.version.file.release());
+			readViews.clear();
+		}
+		try (LockWrapper lock = acquireWriteLock()) {
+			current.file.release();
+		}
+	}
+
+	/**
+	 * @return the latest version, including the held ones
+	 */
+	protected V getCurrent() {
+		return latest;
+	}
+
+	/**
+	 * Makes the version visible to readers, unless versions are held. Must be called under the write lock.
+	 * The previous data file is released if the new version uses another one.
+	 */
+	protected void publish(V version) {
+		version.deleted = deleted;
+		V previous = latest;
+		latest = version;
+		if (!held) {
+			show(version);
+		} else if (previous != current && previous.file != version.file && previous.file != current.file) {
+			// Replaced before it was ever visible, so no reader has pinned it
+			previous.file.release();
+		}
+	}
+
+	/**
+	 * Keeps versions published from now on invisible to readers, till {@link #publishHeld} is called.
+	 * Must be called under the write lock, which must be held till then.
+	 */
+	void holdVersions() {
+		held = true;
+	}
+
+	/**
+	 * Makes the latest versions of the tables visible to readers at once.
+	 */
+	static void publishHeld(Collection<? extends AbstractTableFile<?>> tables) {
+		final long stamp = PUBLICATION_LOCK.writeLock();
+		try {
+			tables.forEach(AbstractTableFile::showLatest);
+		} finally {
+			PUBLICATION_LOCK.unlockWrite(stamp);
+		}
+	}
+
+	private void showLatest() {
+		held = false;
+		show(latest);
+	}
+
+	private void show(V version) {
+		V previous = current;
+		current = version;
+		if (previous != null && previous.file != version.file) {
+			previous.file.release();
+		}
+	}
+
+	private V readCurrent() {
+		long stamp = PUBLICATION_LOCK.tryOptimisticRead();
+		V version = current;
+		if (!PUBLICATION_LOCK.validate(stamp)) {
+			stamp = PUBLICATION_LOCK.readLock();
+			try {
+				version = current;
+			} finally {
+				PUBLICATION_LOCK.unlockRead(stamp);
+			}
+		}
+		return version;
+	}
+
+	private V pinCurrent() {
+		while (true) {
+			V version = readCurrent();
+			if (version.file.acquire()) {
+				return version;
+			}
+			// File was replaced and closed just now, newer version is already published
+		}
+	}
+
+	private V pin(Long readView) {
+		if (readView == null) {
+			return pinCurrent();
+		}
+		synchronized (readViews) {
+			expireReadViews();
+			ReadView<V> view = readViews.get(readView);
+			if (view == null) {
+				throw createReadViewNotFound(readView);
+			}
+			view.expiresAt = System.nanoTime() + readViewTimeout;
+			// Always succeeds, as the view holds a reference
+			view.version.file.acquire();
+			return view.version;
+		}
+	}
+
+	/**
+	 * Releases versions of the views not used for the timeout. Called on use of views, and periodically for
+	 * tables whose views are abandoned, so replaced files do not stay on disk.
+	 */
+	void expireReadViews() {
+		final long now = System.nanoTime();
+		synchronized (readViews) {
+			for (Iterator<ReadView<V>> it = readViews.values().iterator(); it.hasNext(); ) {
+				ReadView<V> view = it.next();
+				if (view.expiresAt - now < 0) {
+					log.info("Read view {} of '{}' expired", view.version.sequence, tableName);
+					it.remove();
+					view.version.file.release();
+				}
+			}
+		}
+	}
+
+	protected static void forceFile(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+			channel.force(true);
+		}
+	}
+
+	protected LockWrapper acquireWriteLock() {
+		return new LockWrapper(writeLock);
+	}
+
+	private void checkRowExists(V version, int rowId) {
+		if (rowId < 0 || rowId >= version.rowCount || version.deleted.get(rowId)) {
+			throw createNotFound(rowId);
+		}
+	}
+
+	protected NotFoundException createNotFound(int rowId) {
+		return new NotFoundException(String.format("Record with ID=%d not found in '%s'", rowId, tableName));
+	}
+
+	private NotFoundException createReadViewNotFound(long readView) {
+		return new NotFoundException(String.format("Read view %d not found in '%s'", readView, tableName));
+	}
+
+	protected DatabaseException createInternalError(String msg) {
+		return new DatabaseException("Database internal error: " + msg);
+	}
+
+	protected DatabaseException createCorruptedTableError() {
+		return new DatabaseException("Database internal error: Corrupted table file: " + tableName);
+	}
+
+	protected DatabaseException createInternalError(Throwable e) {
+		return new DatabaseException("Database internal error: " + e.getMessage(), e);
+	}
+
+}
@@ -0,0 +1,211 @@
+package com.pikozh.testtasks.customdatabasetask.services;
+
+import com.pikozh.testtasks.customdatabasetask.configs.DatabaseProperties;
+import com.pikozh.testtasks.customdatabasetask.model.AdmissionStats;
+import com.pikozh.testtasks.customdatabasetask.model.CompressionStats;
+import com.pikozh.testtasks.customdatabasetask.model.ReadCoalescingStats;
+import com.pikozh.testtasks.customdatabasetask.model.WarmUpStats;
+import com.pikozh.testtasks.customdatabasetask.model.exceptions.TooManyRequestsException;
+import com.pikozh.testtasks.customdatabasetask.services.AdmissionQueue.OperationClass;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Admission control in front of {@link FileDatabase}, so one client cannot occupy all disk I/O and request threads.
+ *
+ * <p>Every operation takes a token from the bucket of its table first (transaction takes one from each of its
+ * tables, or none if any of them has no token), then waits for a free slot in {@link AdmissionQueue}. Both reject operations at once with
+ * {@link TooManyRequestsException} when they are saturated.
+ *
+ * @author a.pikozh
+ */
+@Slf4j
+@Primary
+@Service
+public class AdmissionControlDatabase implements Database, StatisticsService {
+
+	private final FileDatabase database;
+	private final DatabaseProperties.Admission properties;
+	private final AdmissionQueue queue;
+	// Like tables of the database, buckets of unused tables are never removed. Skipped for now
+	private final ConcurrentMap<String, TokenBucket> tableBuckets = new ConcurrentHashMap<>();
+	private final LongAdder rateLimited = new LongAdder();
+
+	public AdmissionControlDatabase(FileDatabase database, DatabaseProperties properties) {
+		this.database = database;
+		this.properties = properties.getAdmission();
+		this.queue = new AdmissionQueue(this.properties);
+		log.info("Admission control of database operations: {}", this.properties);
+	}
+
+	@Override
+	public int insert(@NonNull String tableName, @NonNull List<String> values) {
+		return execute(OperationClass.WRITE, Collections.singleton(tableName),
+				() -> database.insert(tableName, values));
+	}
+
+	@Override
+	public void update(@NonNull String tableName, int rowId, @NonNull List<String> values) {
+		execute(OperationClass.WRITE, Collections.singleton(tableName), () -> {
+			database.update(tableName, rowId, values);
+			return null;
+		});
+	}
+
+	@Override
+	public void delete(@NonNull String tableName, int rowId) {
+		execute(OperationClass.WRITE, Collections.singleton(tableName), () -> {
+			database.delete(tableName, rowId);
+			return null;
+		});
+	}
+
+	@Override
+	public List<String> select(@NonNull String tableName, int rowId) {
+		return execute(OperationClass.READ, Collections.singleton(tableName),
+				() -> database.select(tableName, rowId));
+	}
+
+	@Override
+	public Map<Integer, List<String>> select(@NonNull String tableName, @NonNull Collection<Integer> rowIds,
+											 Long readView) {
+		return execute(OperationClass.READ, Collections.singleton(tableName),
+				() -> database.select(tableName, rowIds, readView));
+	}
+
+	@Override
+	public Map<Integer, List<String>> scan(@NonNull String tableName, int fromRowId, int limit, Long readView) {
+		return execute(OperationClass.READ, Collections.singleton(tableName),
+				() -> database.scan(tableName, fromRowId, limit, readView));
+	}
+
+	@Override
+	public long openReadView(@NonNull String tableName) {
+		return execute(OperationClass.READ, Collections.singleton(tableName),
+				() -> database.openReadView(tableName));
+	}
+
+	/**
+	 * Closing is never rejected, otherwise rejected clients would keep their versions pinned.
+	 */
+	@Override
+	public void closeReadView(@NonNull String tableName, long readView) {
+		database.closeReadView(tableName, readView);
+	}
+
+	@Override
+	public Transaction beginTransaction() {
+		Transaction transaction = database.beginTransaction();
+		Set<String> tableNames = new TreeSet<>();
+		return new Transaction() {
+			@Override
+			public void insert(@NonNull String tableName, @NonNull List<String> values) {
+				transaction.insert(tableName, values);
+				tableNames.add(tableName);
+			}
+
+			@Override
+			public void update(@NonNull String tableName, int rowId, @NonNull List<String> values) {
+				transaction.update(tableName, rowId, values);
+				tableNames.add(tableName);
+			}
+
+			@Override
+			public List<Integer> commit() {
+				return execute(OperationClass.WRITE, tableNames, transaction::commit);
+			}
+		};
+	}
+
+	@Override
+	public ReadCoalescingStats getReadCoalescingStats() {
+		return database.getReadCoalescingStats();
+	}
+
+	@Override
+	public AdmissionStats getAdmissionStats() {
+		return new AdmissionStats(queue.getStats(OperationClass.READ), queue.getStats(OperationClass.WRITE),
+				rateLimited.sum());
+	}
+
+	@Override
+	public CompressionStats getCompressionStats() {
+		return database.getCompressionStats();
+	}
+
+	@Override
+	public WarmUpStats getWarmUpStats() {
+		return database.getWarmUpStats();
+	}
+
+	private <T> T execute(OperationClass operationClass, Collection<String> tableNames, Supplier<T> operation) {
+		if (!properties.isEnabled()) {
+			return operation.get();
+		}
+		List<TokenBucket> buckets = checkRate(tableNames);
+		try {
+			queue.acquire(operationClass);
+		} catch (TooManyRequestsException e) {
+			// Rejected operation does not use up the rate of its tables
+			buckets.forEach(TokenBucket::release);
+			throw e;
+		}
+		try {
+			return operation.get();
+		} finally {
+			queue.release(operationClass);
+		}
+	}
+
+	/**
+	 * Operation on several tables takes tokens only if every table has one, so a rejected transaction does not
+	 * use up the rate of its other tables.
+	 *
+	 * @return buckets the tokens are taken from
+	 */
+	private List<TokenBucket> checkRate(Collection<String> tableNames) {
+		if (properties.getTableRate() <= 0) {
+			return Collections.emptyList();
+		}
+		List<TokenBucket> buckets = new ArrayList<>(tableNames.size());
+		List<String> limited = new ArrayList<>();
+		for (String tableName : tableNames) {
+			TokenBucket bucket = tableBuckets.computeIfAbsent(tableName,
+					t -> new TokenBucket(properties.getTableRate(), properties.getTableBurst()));
+			buckets.add(bucket);
+			if (!bucket.hasToken()) {
+				limited.add(tableName);
+			}
+		}
+		if (limited.isEmpty()) {
+			// Concurrent operation can take the last token after the check, then taken tokens are returned
+			for (int i = 0; i < buckets.size(); i++) {
+				if (!buckets.get(i).tryAcquire()) {
+					buckets.subList(0, i).forEach(TokenBucket::release);
+					limited.add(new ArrayList<>(tableNames).get(i));
+					break;
+				}
+			}
+		}
+		if (!limited.isEmpty()) {
+			rateLimited.increment();
+			throw new TooManyRequestsException("Rate limit of tables exceeded: " + limited);
+		}
+		return buckets;
+	}
+
+}
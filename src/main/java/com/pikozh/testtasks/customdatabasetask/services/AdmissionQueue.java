@@ -0,0 +1,168 @@
+package com.pikozh.testtasks.customdatabasetask.services;
+
+import com.pikozh.testtasks.customdatabasetask.configs.DatabaseProperties;
+import com.pikozh.testtasks.customdatabasetask.model.AdmissionStats;
+import com.pikozh.testtasks.customdatabasetask.model.exceptions.TooManyRequestsException;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits number of operations executed at once. Operations beyond the limit wait in a bounded queue of their
+ * class, and are started in FIFO order, reads before writes. Operation is rejected at once if its queue is full,
+ * or when it waits longer than the configured time.
+ *
+ * @author a.pikozh
+ */
+final class AdmissionQueue {
+
+	enum OperationClass {
+		READ, WRITE
+	}
+
+	private static class Waiter {
+		final Condition admitted;
+		boolean started;
+
+		Waiter(Condition admitted) {
+			this.admitted = admitted;
+		}
+	}
+
+	private static class ClassQueue {
+		final Deque<Waiter> waiters = new ArrayDeque<>();
+		final int capacity;
+		int running;
+		final LongAdder admitted = new LongAdder();
+		final LongAdder rejected = new LongAdder();
+		final LongAdder waitNanos = new LongAdder();
+		final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+
+		ClassQueue(int capacity) {
+			this.capacity = capacity;
+		}
+	}
+
+	private final Lock lock = new ReentrantLock();
+	private final ClassQueue reads;
+	private final ClassQueue writes;
+	private final int maxConcurrent;
+	private final int maxConcurrentWrites;
+	private final long maxWait;
+
+	AdmissionQueue(DatabaseProperties.Admission properties) {
+		this.reads = new ClassQueue(properties.getReadQueueCapacity());
+		this.writes = new ClassQueue(properties.getWriteQueueCapacity());
+		this.maxConcurrent = Math.max(properties.getMaxConcurrent(), 1);
+		this.maxConcurrentWrites = Math.max(Math.min(properties.getMaxConcurrentWrites(), maxConcurrent), 1);
+		this.maxWait = properties.getMaxWait().toNanos();
+	}
+
+	/**
+	 * Waits till the operation can be started. Must be followed by {@link #release} when the operation ends.
+	 *
+	 * @throws TooManyRequestsException if the queue is full or the wait timed out
+	 */
+	void acquire(OperationClass operationClass) throws TooManyRequestsException {
+		final ClassQueue queue = queue(operationClass);
+		final long start = System.nanoTime();
+		lock.lock();
+		try {
+			// Queued operations go first, so new ones do not overtake them
+			if (reads.waiters.isEmpty() && queue.waiters.isEmpty() && canStart(operationClass)) {
+				start(queue);
+				queue.admitted.increment();
+				return;
+			}
+			if (queue.waiters.size() >= queue.capacity) {
+				queue.rejected.increment();
+				throw new TooManyRequestsException(String.format("Too many %s operations queued",
+						operationClass.name().toLowerCase()));
+			}
+			Waiter waiter = new Waiter(lock.newCondition());
+			queue.waiters.add(waiter);
+			try {
+				long remaining = maxWait;
+				while (!waiter.started) {
+					if (remaining <= 0) {
+						queue.waiters.remove(waiter);
+						queue.rejected.increment();
+						throw new TooManyRequestsException(String.format("Queued %s operation is not started in %d ms",
+								operationClass.name().toLowerCase(), TimeUnit.NANOSECONDS.toMillis(maxWait)));
+					}
+					remaining = waiter.admitted.awaitNanos(remaining);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				if (!waiter.started) {
+					queue.waiters.remove(waiter);
+					queue.rejected.increment();
+					throw new TooManyRequestsException("Operation is interrupted while waiting in the queue");
+				}
+			}
+			final long waited = System.nanoTime() - start;
+			queue.admitted.increment();
+			queue.waitNanos.add(waited);
+			queue.maxWaitNanos.accumulate(waited);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void release(OperationClass operationClass) {
+		lock.lock();
+		try {
+			queue(operationClass).running--;
+			startWaiting(reads, OperationClass.READ);
+			startWaiting(writes, OperationClass.WRITE);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	AdmissionStats.QueueStats getStats(OperationClass operationClass) {
+		final ClassQueue queue = queue(operationClass);
+		int running;
+		int queueDepth;
+		lock.lock();
+		try {
+			running = queue.running;
+			queueDepth = queue.waiters.size();
+		} finally {
+			lock.unlock();
+		}
+		long admitted = queue.admitted.sum();
+		return new AdmissionStats.QueueStats(running, queueDepth, admitted, queue.rejected.sum(),
+				admitted == 0 ? 0 : queue.waitNanos.sum() / 1e6 / admitted,
+				queue.maxWaitNanos.get() / 1e6);
+	}
+
+	private void startWaiting(ClassQueue queue, OperationClass operationClass) {
+		while (!queue.waiters.isEmpty() && canStart(operationClass)) {
+			Waiter waiter = queue.waiters.poll();
+			start(queue);
+			waiter.started = true;
+			waiter.admitted.signal();
+		}
+	}
+
+	private boolean canStart(OperationClass operationClass) {
+		return reads.running + writes.running < maxConcurrent
+				&& (operationClass == OperationClass.READ || writes.running < maxConcurrentWrites);
+	}
+
+	private void start(ClassQueue queue) {
+		queue.running++;
+	}
+
+	private ClassQueue queue(OperationClass operationClass) {
+		return operationClass == OperationClass.READ ? reads : writes;
+	}
+
+}
@@ -0,0 +1,571 @@
+package com.pikozh.testtasks.customdatabasetask.services;
+
+import com.pikozh.testtasks.customdatabasetask.configs.DatabaseProperties;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.ObjIntConsumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Table file with rows packed into compressed blocks of fixed number of rows.
+ *
+ * <p>Data file ({@code <table>_$blk}) is append-only and consists of block records: header (block number, row count,
+ * raw length, compressed length) and Deflater-compressed rows joined with LF. Updated block is appended as a new
+ * version and the latest version of each block wins. Block index is rebuilt on open by reading record headers only,
+ * so selecting a row reads and decompresses exactly one block. Outdated versions are removed by compaction,
+ * which also recompresses all (now cold) blocks with higher compression level.
+ *
+ * <p>Sealed blocks of tables which are only appended to are never compacted, so they are recompressed with the cold
+ * level by {@link #recompressCold}, appending the cold block versions. Whether a block is cold is taken from the level
+ * flags of its zlib header, so nothing has to be stored for it.
+ *
+ * <p>Rows of the last incomplete block are kept in plain tail file ({@code <table>_$tail}). First line of the tail
+ * file is the number of the block it belongs to. Once the tail is full, it is compressed and appended as a block.
+ *
+ * @author a.pikozh
+ */
+@Slf4j
+class CompressedTableFile extends AbstractTableFile<CompressedTableFile.BlockVersion> {
+
+	static class BlockVersion extends Version {
+		final int blockRows;
+		final int blockCount;
+		final long[] blockOffsets;
+		final int[] blockSizes;
+		final List<String> tail;
+		// Sizes of the latest block versions, for compression ratio
+		final long rawSize;
+		final long compressedSize;
+
+		BlockVersion(long sequence, DataFile file, int blockRows, int blockCount, long[] blockOffsets,
+					 int[] blockSizes, List<String> tail, long rawSize, long compressedSize) {
+			super(sequence, blockCount * blockRows + tail.size(), file);
+			this.blockRows = blockRows;
+			this.blockCount = blockCount;
+			this.blockOffsets = blockOffsets;
+			this.blockSizes = blockSizes;
+			this.tail = tail;
+			this.rawSize = rawSize;
+			this.compressedSize = compressedSize;
+		}
+	}
+
+	static final String DATA_SUFFIX = "_$blk";
+	static final String TAIL_SUFFIX = "_$tail";
+	private static final int HEADER_SIZE = 4 * Integer.BYTES;
+	private static final int RAW_LENGTH_POSITION = 2 * Integer.BYTES;
+	// Second byte of zlib header, its upper 2 bits are the compression level class
+	private static final int FLAGS_POSITION = HEADER_SIZE + 1;
+	private static final String ROW_SEPARATOR = "\n";
+
+	private final Path dataPath;
+	private final Path tailPath;
+	private final int level;
+	private final int coldLevel;
+	private final int coldLevelClass;
+	private final double compactionGarbageRatio;
+	private int blockRows;
+
+	// Index of the latest block versions. Published versions share offset and size arrays, so entries of existing
+	// blocks are changed in copies, while new blocks are added in place beyond block count of the published versions.
+	private long[] blockOffsets = new long[16];
+	private int[] blockSizes = new int[16];
+	private int[] blockRawLengths = new int[16];
+	private boolean[] blockCold = new boolean[16];
+	private int blockCount;
+	private long dataSize;
+	private long liveSize;
+	private long liveRawSize;
+	private boolean indexPublished;
+	private DataFile dataFile;
+
+	private List<String> tail = new ArrayList<>();
+
+	CompressedTableFile(@NonNull final String tableName,
+						@NonNull final DatabaseProperties properties) {
+		super(tableName, properties);
+		log.info("Creating new CompressedTableFile instance for '{}' (props:{})", tableName, properties);
+		DatabaseProperties.Compression compression = properties.getCompression();
+		this.dataPath = resolvePath(properties, tableName + DATA_SUFFIX);
+		this.tailPath = resolvePath(properties, tableName + TAIL_SUFFIX);
+		this.level = compression.getLevel();
+		this.coldLevel = compression.getColdLevel();
+		this.coldLevelClass = levelClass(compress(new byte[0], coldLevel)[1]);
+		this.compactionGarbageRatio = compression.getCompactionGarbageRatio();
+		this.blockRows = compression.getBlockRows();
+		if (blockRows <= 0) {
+			throw new IllegalArgumentException("Invalid number of rows per block: " + blockRows);
+		}
+
+		try {
+			if (!Files.exists(dataPath)) {
+				log.info("File '{}' not exists, creating new", dataPath.toAbsolutePath());
+				Files.createDirectories(dataPath.toAbsolutePath().getParent());
+				Files.createFile(dataPath);
+			} else {
+				log.info("File '{}' exists, reading block index", dataPath.toAbsolutePath());
+				loadBlockIndex();
+			}
+			dataFile = new DataFile(dataPath);
+			loadTail();
+			publishVersion();
+			log.info("File '{}' contains {} rows in {} blocks (compression ratio {})",
+					dataPath.toAbsolutePath(), nextRowId(), blockCount, formatCompressionRatio());
+			log.info("CompressedTableFile instance successfully created");
+		} catch (IOException e) {
+			log.error(e.getMessage(), e);
+			throw createInternalError(e);
+		}
+	}
+
+	static boolean exists(DatabaseProperties properties, String tableName) {
+		return Files.exists(resolvePath(properties, tableName + DATA_SUFFIX));
+	}
+
+	/**
+	 * @return size of rows in the latest block versions, tail is not included
+	 */
+	long getRawSize() {
+		return getCurrent().rawSize;
+	}
+
+	/**
+	 * @return size of the latest block versions in the data file
+	 */
+	long getCompressedSize() {
+		return getCurrent().compressedSize;
+	}
+
+	private String formatCompressionRatio() {
+		return String.format("%.2f", liveSize == 0 ? 1.0 : (double) liveRawSize / liveSize);
+	}
+
+	private int nextRowId() {
+		return blockCount * blockRows + tail.size();
+	}
+
+	private void checkRowId(int rowId) {
+		if (rowId < 0 || rowId >= nextRowId()) {
+			throw createNotFound(rowId);
+		}
+	}
+
+	@Override
+	int insertAll(List<List<String>> rows) {
+		try (LockWrapper lock = acquireWriteLock()) {
+			final int firstRowId = nextRowId();
+			int from = 0;
+			while (from < rows.size()) {
+				// Tail is appended up to the block end, then compressed
+				int to = Math.min(rows.size(), from + blockRows - tail.size());
+				List<String> packedRows = new ArrayList<>(to - from);
+				StringBuilder lines = new StringBuilder();
+				for (List<String> values : rows.subList(from, to)) {
+					String row = RowFormat.packValues(values);
+					packedRows.add(row);
+					lines.append(row).append(System.lineSeparator());
+				}
+				Files.writeString(tailPath, lines, StandardOpenOption.APPEND);
+				tail.addAll(packedRows);
+				if (tail.size() == blockRows) {
+					flushTail();
+				}
+				from = to;
+			}
+			publishVersion();
+			return firstRowId;
+		} catch (IOException e) {
+			log.error(e.getMessage(), e);
+			throw createInternalError(e);
+		}
+	}
+
+	@Override
+	void updateAll(Map<Integer, List<String>> rows) {
+		try (LockWrapper lock = acquireWriteLock()) {
+			rows.keySet().forEach(this::checkRowId);
+			final BlockVersion version = getCurrent();
+			// Packed rows by position in block, by block number
+			Map<Integer, Map<Integer, String>> blocks = new TreeMap<>();
+			rows.forEach((rowId, values) -> blocks
+					.computeIfAbsent(rowId / blockRows, blockNo -> new HashMap<>())
+					.put(rowId % blockRows, RowFormat.packValues(values)));
+
+			for (Map.Entry<Integer, Map<Integer, String>> block : blocks.entrySet()) {
+				int blockNo = block.getKey();
+				if (blockNo == blockCount) {
+					block.getValue().forEach(tail::set);
+					writeTail();
+				} else {
+					String[] blockContent = readBlock(version, blockNo);
+					block.getValue().forEach((index, row) -> blockContent[index] = row);
+					appendBlock(blockNo, Arrays.asList(blockContent), level);
+				}
+			}
+			if (dataSize - liveSize > liveSize * compactionGarbageRatio) {
+				compact();
+			}
+			publishVersion();
+		} catch (IOException e) {
+			log.error(e.getMessage(), e);
+			throw createInternalError(e);
+		}
+	}
+
+	/**
+	 * Appends blocks, which were not compressed with the cold level yet, recompressed with it. Data file is compacted
+	 * when the replaced block versions take too much space, like on update.
+	 */
+	@Override
+	int recompressCold(int maxBlocks) {
+		try (LockWrapper lock = acquireWriteLock()) {
+			final BlockVersion version = getCurrent();
+			final long oldSize = liveSize;
+			int count = 0;
+			for (int blockNo = 0; blockNo < blockCount && count < maxBlocks; blockNo++) {
+				if (!blockCold[blockNo]) {
+					appendBlock(blockNo, Arrays.asList(readBlock(version, blockNo)), coldLevel);
+					count++;
+				}
+			}
+			if (count == 0) {
+				return 0;
+			}
+			log.info("{} blocks of '{}' recompressed, {} to {} bytes (compression ratio {})",
+					count, tableName, oldSize, liveSize, formatCompressionRatio());
+			if (dataSize - liveSize > liveSize * compactionGarbageRatio) {
+				compact();
+			}
+			publishVersion();
+			return count;
+		} catch (IOException e) {
+			log.error(e.getMessage(), e);
+			throw createInternalError(e);
+		}
+	}
+
+	@Override
+	protected BlockVersion copyVersion(BlockVersion version, long sequence) {
+		return new BlockVersion(sequence, version.file, version.blockRows, version.blockCount,
+				version.blockOffsets, version.blockSizes, version.tail, version.rawSize, version.compressedSize);
+	}
+
+	@Override
+	void force() {
+		try (LockWrapper lock = acquireWriteLock()) {
+			forceFile(dataPath);
+			forceFile(tailPath);
+		} catch (IOException e) {
+			log.error(e.getMessage(), e);
+			throw createInternalError(e);
+		}
+	}
+
+	@Override
+	protected void readRows(BlockVersion version, int[] rowIds, ObjIntConsumer<String> consumer) throws IOException {
+		int loadedBlockNo = -1;
+		String[] rows = null;
+		for (int rowId : rowIds) {
+			int blockNo = rowId / version.blockRows;
+			if (blockNo == version.blockCount) {
+				consumer.accept(version.tail.get(rowId % version.blockRows), rowId);
+				continue;
+			}
+			if (blockNo != loadedBlockNo) {
+				rows = readBlock(version, blockNo);
+				loadedBlockNo = blockNo;
+			}
+			consumer.accept(rows[rowId % version.blockRows], rowId);
+		}
+	}
+
+	private BlockVersion createVersion(long sequence) {
+		indexPublished = true;
+		return new BlockVersion(sequence, dataFile, blockRows, blockCount, blockOffsets, blockSizes, List.copyOf(tail),
+				liveRawSize, liveSize);
+	}
+
+	private void publishVersion() {
+		BlockVersion previous = getCurrent();
+		publish(createVersion(previous == null ? 0 : previous.sequence + 1));
+	}
+
+	private void loadBlockIndex() throws IOException {
+		try (FileChannel channel = FileChannel.open(dataPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			final long size = channel.size();
+			long position = 0;
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			ByteBuffer zlibHeader = ByteBuffer.allocate(2);
+			while (position + HEADER_SIZE <= size) {
+				header.clear();
+				readFully(channel, header, position);
+				header.flip();
+				int blockNo = header.getInt();
+				int rowCount = header.getInt();
+				int rawLength = header.getInt();
+				int compressedLength = header.getInt();
+				if (position == 0 && rowCount > 0 && rowCount != blockRows) {
+					log.warn("Table '{}' is stored with {} rows per block instead of configured {}",
+							tableName, rowCount, blockRows);
+					blockRows = rowCount;
+				}
+				if (blockNo < 0 || blockNo > blockCount || rowCount != blockRows
+						|| rawLength < 0 || compressedLength < zlibHeader.capacity()) {
+					throw createCorruptedTableError();
+				}
+				long recordSize = HEADER_SIZE + (long) compressedLength;
+				if (position + recordSize > size) {
+					break;
+				}
+				zlibHeader.clear();
+				readFully(channel, zlibHeader, position + HEADER_SIZE);
+				putBlock(blockNo, position, (int) recordSize, rawLength, levelClass(zlibHeader.get(1)) == coldLevelClass);
+				position += recordSize;
+			}
+			dataSize = position;
+			if (position != size) {
+				// Block append was interrupted, the incomplete record was never indexed
+				log.warn("File '{}' ends with {} bytes of incomplete block, truncating", dataPath, size - position);
+				channel.truncate(position);
+			}
+		}
+	}
+
+	private void loadTail() throws IOException {
+		if (!Files.exists(tailPath)) {
+			writeTail();
+			return;
+		}
+		List<String> lines = Files.readAllLines(tailPath);
+		int tailBlockNo;
+		try {
+			tailBlockNo = lines.isEmpty() ? -1 : Integer.parseInt(lines.get(0));
+		} catch (NumberFormatException e) {
+			throw createCorruptedTableError();
+		}
+		if (tailBlockNo < blockCount) {
+			// Tail was compressed into a block, but not cleared after that
+			tail = new ArrayList<>();
+			writeTail();
+		} else if (tailBlockNo == blockCount && lines.size() - 1 <= blockRows) {
+			tail = new ArrayList<>(lines.subList(1, lines.size()));
+			if (tail.size() == blockRows) {
+				flushTail();
+			}
+		} else {
+			throw createCorruptedTableError();
+		}
+	}
+
+	private void writeTail() throws IOException {
+		final Path tmpTailPath = Path.of(tailPath.toAbsolutePath() + "_$tmp");
+		StringBuilder builder = new StringBuilder().append(blockCount).append(System.lineSeparator());
+		tail.forEach(row -> builder.append(row).append(System.lineSeparator()));
+		Files.writeString(tmpTailPath, builder);
+		Files.move(tmpTailPath, tailPath, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private void flushTail() throws IOException {
+		appendBlock(blockCount, tail, level);
+		tail = new ArrayList<>();
+		writeTail();
+	}
+
+	private void appendBlock(int blockNo, List<String> rows, int compressionLevel) throws IOException {
+		ByteBuffer record = encodeBlock(blockNo, rows, compressionLevel);
+		try (FileChannel channel = FileChannel.open(dataPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+			writeFully(channel, record);
+		}
+		putBlock(blockNo, dataSize, record.limit(), record.getInt(RAW_LENGTH_POSITION), isCold(record));
+		dataSize += record.limit();
+	}
+
+	private void putBlock(int blockNo, long offset, int size, int rawLength, boolean cold) {
+		if (blockNo == blockCount) {
+			if (blockCount == blockOffsets.length) {
+				blockOffsets = Arrays.copyOf(blockOffsets, blockCount * 2);
+				blockSizes = Arrays.copyOf(blockSizes, blockCount * 2);
+				blockRawLengths = Arrays.copyOf(blockRawLengths, blockCount * 2);
+				blockCold = Arrays.copyOf(blockCold, blockCount * 2);
+			}
+			blockCount++;
+		} else {
+			if (indexPublished) {
+				blockOffsets = blockOffsets.clone();
+				blockSizes = blockSizes.clone();
+				indexPublished = false;
+			}
+			liveSize -= blockSizes[blockNo];
+			liveRawSize -= blockRawLengths[blockNo];
+		}
+		blockOffsets[blockNo] = offset;
+		blockSizes[blockNo] = size;
+		blockRawLengths[blockNo] = rawLength;
+		blockCold[blockNo] = cold;
+		liveSize += size;
+		liveRawSize += rawLength;
+	}
+
+	private String[] readBlock(BlockVersion version, int blockNo) throws IOException {
+		ByteBuffer record = ByteBuffer.allocate(version.blockSizes[blockNo]);
+		readFully(version.file.getChannel(), record, version.blockOffsets[blockNo]);
+		record.flip();
+		if (record.getInt() != blockNo) {
+			throw createCorruptedTableError();
+		}
+		int rowCount = record.getInt();
+		int rawLength = record.getInt();
+		record.getInt(); // compressed length, equals to the rest of the record
+		String[] rows = new String(decompress(record, rawLength), StandardCharsets.UTF_8).split(ROW_SEPARATOR, -1);
+		if (rows.length != rowCount) {
+			throw createCorruptedTableError();
+		}
+		return rows;
+	}
+
+	/**
+	 * Rewrites data file without outdated block versions. All blocks are recompressed with the cold level,
+	 * as they are not expected to be modified soon.
+	 */
+	private void compact() throws IOException {
+		final Path tmpDataPath = Path.of(dataPath.toAbsolutePath() + "_$tmp");
+		final long oldSize = dataSize;
+		long[] offsets = new long[blockOffsets.length];
+		int[] sizes = new int[blockSizes.length];
+		int[] rawLengths = new int[blockRawLengths.length];
+		boolean[] cold = new boolean[blockCold.length];
+		long position = 0;
+		// Not published yet, but includes blocks appended by the current operation
+		final BlockVersion latest = createVersion(getCurrent().sequence);
+		try (FileChannel channel = FileChannel.open(tmpDataPath,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			for (int blockNo = 0; blockNo < blockCount; blockNo++) {
+				ByteBuffer record = encodeBlock(blockNo, Arrays.asList(readBlock(latest, blockNo)), coldLevel);
+				offsets[blockNo] = position;
+				sizes[blockNo] = record.limit();
+				rawLengths[blockNo] = record.getInt(RAW_LENGTH_POSITION);
+				cold[blockNo] = isCold(record);
+				writeFully(channel, record);
+				position += sizes[blockNo];
+			}
+		} catch (IOException e) {
+			Files.deleteIfExists(tmpDataPath);
+			throw e;
+		}
+		DataFile file = new DataFile(tmpDataPath);
+		try {
+			Files.move(tmpDataPath, dataPath, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			file.release();
+			Files.deleteIfExists(tmpDataPath);
+			throw e;
+		}
+
+		// Previous file is released on publishing, when it is not pinned anymore
+		dataFile = file;
+		indexPublished = false;
+		blockOffsets = offsets;
+		blockSizes = sizes;
+		blockRawLengths = rawLengths;
+		blockCold = cold;
+		dataSize = position;
+		liveSize = position;
+		log.info("Table '{}' compacted from {} to {} bytes (compression ratio {})",
+				tableName, oldSize, dataSize, formatCompressionRatio());
+	}
+
+	private boolean isCold(ByteBuffer record) {
+		return levelClass(record.get(FLAGS_POSITION)) == coldLevelClass;
+	}
+
+	/**
+	 * @param flags second byte of zlib header
+	 * @return FLEVEL field, which Deflater sets from the compression level
+	 */
+	private static int levelClass(byte flags) {
+		return (flags & 0xff) >> 6;
+	}
+
+	private static ByteBuffer encodeBlock(int blockNo, List<String> rows, int compressionLevel) {
+		byte[] raw = String.join(ROW_SEPARATOR, rows).getBytes(StandardCharsets.UTF_8);
+		byte[] compressed = compress(raw, compressionLevel);
+		ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + compressed.length);
+		record.putInt(blockNo).putInt(rows.size()).putInt(raw.length).putInt(compressed.length).put(compressed);
+		record.flip();
+		return record;
+	}
+
+	private static byte[] compress(byte[] raw, int compressionLevel) {
+		Deflater deflater = new Deflater(compressionLevel);
+		try {
+			deflater.setInput(raw);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 64);
+			byte[] buffer = new byte[8192];
+			while (!deflater.finished()) {
+				int length = deflater.deflate(buffer);
+				out.write(buffer, 0, length);
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private byte[] decompress(ByteBuffer compressed, int rawLength) {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressed);
+			byte[] raw = new byte[rawLength];
+			int length = 0;
+			while (length < rawLength && !inflater.finished()) {
+				int n = inflater.inflate(raw, length, rawLength - length);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				length += n;
+			}
+			if (length != rawLength) {
+				throw createCorruptedTableError();
+			}
+			return raw;
+		} catch (DataFormatException e) {
+			throw createCorruptedTableError();
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw createCorruptedTableError();
+			}
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+}
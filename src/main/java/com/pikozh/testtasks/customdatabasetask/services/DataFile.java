@@ -0,0 +1,89 @@
+package com.pikozh.testtasks.customdatabasetask.services;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reference counted read-only channel to a table data file.
+ *
+ * <p>Opened channel keeps reading the same file contents after the path is replaced by a rewritten file, so table
+ * versions pinned by readers stay readable. The channel is closed (and disk space of the replaced file is freed)
+ * when the last reference is released. The table itself holds one reference while the file is current.
+ *
+ * @author a.pikozh
+ */
+@Slf4j
+final class DataFile {
+
+	private final FileChannel channel;
+	private int references = 1;
+
+	DataFile(Path path) throws IOException {
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+	}
+
+	/**
+	 * @return false if the file is already closed
+	 */
+	synchronized boolean acquire() {
+		if (references == 0) {
+			return false;
+		}
+		references++;
+		return true;
+	}
+
+	synchronized void release() {
+		if (references > 0 && --references == 0) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				log.warn("Cannot close data file: {}", e.getMessage());
+			}
+		}
+	}
+
+	FileChannel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * @return stream which uses positional reads, so the channel can be read by several threads at once
+	 */
+	InputStream newInputStream() {
+		return newInputStream(0);
+	}
+
+	/**
+	 * @param start position in the file to read from
+	 */
+	InputStream newInputStream(long start) {
+		return new InputStream() {
+			private long position = start;
+
+			@Override
+			public int read() throws IOException {
+				byte[] b = new byte[1];
+				return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (len == 0) {
+					return 0;
+				}
+				int n = channel.read(ByteBuffer.wrap(b, off, len), position);
+				if (n > 0) {
+					position += n;
+				}
+				return n;
+			}
+		};
+	}
+}
@@ -2,7 +2,9 @@ package com.pikozh.testtasks.customdatabasetask.services;
 
 import com.pikozh.testtasks.customdatabasetask.model.exceptions.NotFoundException;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 public interface Database {
 	/**
@@ -27,6 +29,15 @@ public interface Database {
 	 */
 	void update(String tableName, int rowId, List<String> values);
 
+	/**
+	 * Deletes the row identified by the given ID in the given table. IDs of deleted rows are not reused.
+	 *
+	 * @param tableName identifies the table containing the row to be deleted
+	 * @param rowId the numerical ID identifying the row to be deleted
+	 * @throws NotFoundException if the table / row ID combination did not match an existing row
+	 */
+	void delete(String tableName, int rowId);
+
 	/**
 	 * Retrieves the values associated with the given row ID in the given table (as previously inserted / updated).
 	 *
@@ -36,4 +47,54 @@ public interface Database {
 	 * @throws NotFoundException if the table / row ID combination did not match an existing row
 	 */
 	List<String> select(String tableName, int rowId);
+
+	/**
+	 * Retrieves the values of several rows of the given table. All rows are read from the same state of the table.
+	 *
+	 * @param tableName identifies the table containing the rows to be retrieved
+	 * @param rowIds the numerical IDs identifying the rows to be retrieved
+	 * @param readView sequence number of a read view opened with {@link #openReadView}, or null to read the latest
+	 *                 state of the table
+	 * @return the lists of values by row ID, ordered by row ID
+	 * @throws NotFoundException if any of the row IDs or the read view did not match an existing one
+	 */
+	Map<Integer, List<String>> select(String tableName, Collection<Integer> rowIds, Long readView);
+
+	/**
+	 * Retrieves the values of consecutive rows of the given table. All rows are read from the same state of the table.
+	 *
+	 * @param tableName identifies the table containing the rows to be retrieved
+	 * @param fromRowId the numerical ID of the first row to be retrieved
+	 * @param limit maximal number of rows to be retrieved
+	 * @param readView sequence number of a read view opened with {@link #openReadView}, or null to read the latest
+	 *                 state of the table
+	 * @return the lists of values by row ID, ordered by row ID
+	 * @throws NotFoundException if the read view did not match an existing one
+	 */
+	Map<Integer, List<String>> scan(String tableName, int fromRowId, int limit, Long readView);
+
+	/**
+	 * Pins the current state of the given table, so it can be read by several requests regardless of later updates.
+	 * Updates are never blocked by read views. The view is closed automatically if not used for some time.
+	 *
+	 * @param tableName identifies the table to be pinned
+	 * @return sequence number of the pinned table state, which identifies the read view
+	 */
+	long openReadView(String tableName);
+
+	/**
+	 * Releases the read view opened with {@link #openReadView}.
+	 *
+	 * @param tableName identifies the table of the read view
+	 * @param readView sequence number of the read view
+	 * @throws NotFoundException if the read view did not match an existing one
+	 */
+	void closeReadView(String tableName, long readView);
+
+	/**
+	 * Starts a transaction, which applies several inserts / updates of any tables atomically.
+	 *
+	 * @return new transaction buffering writes till commit
+	 */
+	Transaction beginTransaction();
 }
\ No newline at end of file
@@ -1,16 +1,44 @@
 package com.pikozh.testtasks.customdatabasetask.services;
 
 import com.pikozh.testtasks.customdatabasetask.configs.DatabaseProperties;
+import com.pikozh.testtasks.customdatabasetask.model.CompressionStats;
+import com.pikozh.testtasks.customdatabasetask.model.ReadCoalescingStats;
+import com.pikozh.testtasks.customdatabasetask.model.SnapshotInfo;
+import com.pikozh.testtasks.customdatabasetask.model.TransactionOperation;
+import com.pikozh.testtasks.customdatabasetask.model.WarmUpStats;
+import com.pikozh.testtasks.customdatabasetask.model.exceptions.DatabaseException;
+import com.pikozh.testtasks.customdatabasetask.model.exceptions.NotFoundException;
 import lombok.AllArgsConstructor;
 import lombok.NonNull;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * @author a.pikozh
@@ -19,43 +47,483 @@ import java.util.regex.Pattern;
 @Slf4j
 @AllArgsConstructor
 @Service
-public class FileDatabase implements Database {
+public class FileDatabase implements Database, SnapshotService {
 
 	private static final Pattern TABLE_NAME_PATTERN = Pattern.compile("[\\w_.-]+");
 
 	private final DatabaseProperties properties;
+	private final SnapshotStorage snapshotStorage;
+	private final TransactionLog transactionLog;
+	private final MemoryAccountant memoryAccountant;
 
-	private final ConcurrentMap<String, TableFile> tables = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, AbstractTableFile<?>> tables = new ConcurrentHashMap<>();
+
+	// Table operations share this lock, restore takes it exclusively. So restore waits only for operations
+	// in progress and then suspends new ones while replacing files.
+	private final ReadWriteLock databaseLock = new ReentrantReadWriteLock();
+	// Modifications share this lock, snapshot creation takes it exclusively. So a snapshot links files of
+	// a consistent state without stopping reads, as they do not take this lock.
+	private final ReadWriteLock modificationLock = new ReentrantReadWriteLock();
+
+	// Concurrent selects of the same row share one read. Key includes the table version, so selects coming after
+	// a modification never wait for a read started before it
+	private final SingleFlight<SelectKey, List<String>> selectFlights = new SingleFlight<>();
+
+	private final ScheduledExecutorService maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "database-maintenance");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Progress of opening existing tables at startup.
+	 */
+	private static class WarmUpProgress {
+		final long startNanos = System.nanoTime();
+		final AtomicInteger remaining = new AtomicInteger();
+		final AtomicInteger warmed = new AtomicInteger();
+		final AtomicInteger failed = new AtomicInteger();
+		volatile int tables;
+		volatile boolean cancelled;
+		// Negative till warm-up is done
+		volatile long elapsedNanos = -1;
+
+		void finish() {
+			elapsedNanos = System.nanoTime() - startNanos;
+		}
+	}
+
+	private final WarmUpProgress warmUp = new WarmUpProgress();
 
 	// There must be a cleaning code that prevents memory overflow in case of huge number of tables by removing
 	// TableFile entries that not used for a long time. Skipped nor now.
 
-	private TableFile getTable(String tableName) {
+	private AbstractTableFile<?> getTable(String tableName) {
 		if (!TABLE_NAME_PATTERN.matcher(tableName).matches()) {
 			log.debug("Invalid table name: '{}'", tableName);
 			throw new IllegalArgumentException("Invalid table name: " + tableName);
 		}
-		return tables.computeIfAbsent(tableName, t -> new TableFile(t, properties));
+		return tables.computeIfAbsent(tableName, this::openTable);
+	}
+
+	/**
+	 * Existing table is opened in the format it was stored with, new table is created in the configured format.
+	 * Hot tables use the plain format, so a table can be made hot or not with configuration only.
+	 */
+	private AbstractTableFile<?> openTable(String tableName) {
+		if (CompressedTableFile.exists(properties, tableName)) {
+			return new CompressedTableFile(tableName, properties);
+		}
+		if (properties.getHotTables().stream().anyMatch(pattern -> pattern.matcher(tableName).matches())) {
+			return new HotTableFile(tableName, properties);
+		}
+		if (properties.getCompression().isEnabled() && !Files.exists(AbstractTableFile.resolvePath(properties, tableName))) {
+			return new CompressedTableFile(tableName, properties);
+		}
+		return new TableFile(tableName, properties, memoryAccountant);
 	}
 
 	@PostConstruct
-	private void construct() {
+	void construct() {
 		log.info("Constructing FileDatabase with pros: {}", properties);
+		recoverTransactions();
+		warmUpTables();
+		final long interval = properties.getDeletes().getCompactionInterval().toMillis();
+		maintenanceExecutor.scheduleWithFixedDelay(this::compactDeleted, interval, interval, TimeUnit.MILLISECONDS);
+		final long recompressionInterval = properties.getCompression().getRecompressionInterval().toMillis();
+		maintenanceExecutor.scheduleWithFixedDelay(this::recompressCold, recompressionInterval, recompressionInterval,
+				TimeUnit.MILLISECONDS);
+		final long readViewTimeout = Math.max(properties.getReadViewTimeout().toMillis(), 1);
+		maintenanceExecutor.scheduleWithFixedDelay(this::expireReadViews, readViewTimeout, readViewTimeout,
+				TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	void destroy() {
+		maintenanceExecutor.shutdownNow();
+		// Warm-up threads are not interrupted, as interrupted read closes the file channel shared with other readers
+		warmUp.cancelled = true;
+		transactionLog.checkpoint(this::forceTables);
+		transactionLog.close();
+	}
+
+	private void recoverTransactions() {
+		List<TransactionRecord> pending = transactionLog.open();
+		for (TransactionRecord record : pending) {
+			log.info("Applying transaction {} from the log", record.id);
+			applyTransaction(record);
+		}
+		transactionLog.checkpoint(this::forceTables);
+	}
+
+	/**
+	 * Opens tables found in the database location in background, so their indexes are built and latest rows are
+	 * cached before the first requests. Tables are opened in parallel, as opening is mostly reading of files.
+	 */
+	private void warmUpTables() {
+		final DatabaseProperties.Warmup warmupProperties = properties.getWarmup();
+		if (!warmupProperties.isEnabled()) {
+			warmUp.finish();
+			return;
+		}
+		List<String> tableNames = findTables();
+		warmUp.tables = tableNames.size();
+		warmUp.remaining.set(tableNames.size());
+		if (tableNames.isEmpty()) {
+			warmUp.finish();
+			return;
+		}
+		final int threads = Math.max(Math.min(warmupProperties.getThreads(), tableNames.size()), 1);
+		log.info("Warming up {} tables in {} threads", tableNames.size(), threads);
+		final AtomicInteger threadNumber = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "database-warmup-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		final long prefetchSize = warmupProperties.getPrefetchSize().toBytes();
+		tableNames.forEach(tableName -> executor.execute(() -> warmUpTable(tableName, prefetchSize)));
+		// Threads end when the queued tables are done
+		executor.shutdown();
+	}
+
+	private void warmUpTable(String tableName, long prefetchSize) {
+		if (warmUp.cancelled) {
+			return;
+		}
+		try (LockWrapper lock = new LockWrapper(databaseLock.readLock())) {
+			getTable(tableName).warmUp(prefetchSize);
+			warmUp.warmed.incrementAndGet();
+		} catch (RuntimeException e) {
+			// Table is opened again on the first request to it
+			log.error(String.format("Warm-up of table '%s' failed", tableName), e);
+			warmUp.failed.incrementAndGet();
+		}
+		if (warmUp.remaining.decrementAndGet() == 0) {
+			warmUp.finish();
+			log.info("Warm-up of {} tables is done in {} ms, {} failed", warmUp.tables,
+					TimeUnit.NANOSECONDS.toMillis(warmUp.elapsedNanos), warmUp.failed.get());
+		}
+	}
+
+	/**
+	 * @return names of tables in the database location, in any storage format
+	 */
+	private List<String> findTables() {
+		final Path location = Path.of(properties.getLocation());
+		if (!Files.isDirectory(location)) {
+			return Collections.emptyList();
+		}
+		try (Stream<Path> files = Files.list(location)) {
+			// Service files have "$" in their names, so only table files match the table name pattern
+			return files.filter(Files::isRegularFile)
+					.map(path -> path.getFileName().toString())
+					.map(fileName -> fileName.endsWith(CompressedTableFile.DATA_SUFFIX)
+							? fileName.substring(0, fileName.length() - CompressedTableFile.DATA_SUFFIX.length())
+							: fileName)
+					.filter(tableName -> TABLE_NAME_PATTERN.matcher(tableName).matches())
+					.distinct()
+					.sorted()
+					.collect(Collectors.toList());
+		} catch (IOException e) {
+			// Tables are opened on the first request then
+			log.error(e.getMessage(), e);
+			return Collections.emptyList();
+		}
+	}
+
+	/**
+	 * Erases contents of deleted rows in tables, which have enough of them.
+	 */
+	private void compactDeleted() {
+		try (LockWrapper lock = new LockWrapper(databaseLock.readLock());
+			 LockWrapper modification = new LockWrapper(modificationLock.readLock())) {
+			for (AbstractTableFile<?> table : tables.values()) {
+				table.purgeDeleted(properties.getDeletes().getCompactionMinRows());
+			}
+		} catch (RuntimeException e) {
+			// Next run will try again
+			log.error(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Recompresses sealed blocks of compressed tables with the cold level. Tables which are only appended to are
+	 * never compacted, so their blocks would stay compressed with the fast level otherwise.
+	 */
+	private void recompressCold() {
+		try (LockWrapper lock = new LockWrapper(databaseLock.readLock());
+			 LockWrapper modification = new LockWrapper(modificationLock.readLock())) {
+			for (AbstractTableFile<?> table : tables.values()) {
+				table.recompressCold(properties.getCompression().getRecompressionBlocks());
+			}
+		} catch (RuntimeException e) {
+			// Next run will try again
+			log.error(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Releases read views abandoned by clients. Views are expired on use of the table too, but a table may not
+	 * be used again.
+	 */
+	private void expireReadViews() {
+		try (LockWrapper lock = new LockWrapper(databaseLock.readLock())) {
+			tables.values().forEach(AbstractTableFile::expireReadViews);
+		} catch (RuntimeException e) {
+			// Next run will try again
+			log.error(e.getMessage(), e);
+		}
+	}
+
+	private void forceTables() {
+		tables.values().forEach(AbstractTableFile::force);
 	}
 
 	@Override
 	public int insert(@NonNull String tableName, @NonNull List<String> values) {
-		return getTable(tableName).insert(values);
+		try (LockWrapper lock = new LockWrapper(databaseLock.readLock());
+			 LockWrapper modification = new LockWrapper(modificationLock.readLock())) {
+			return getTable(tableName).insert(values);
+		}
 	}
 
 	@Override
 	public void update(@NonNull String tableName, int rowId, @NonNull List<String> values) {
-		getTable(tableName).update(rowId, values);
+		try (LockWrapper lock = new LockWrapper(databaseLock.readLock());
+			 LockWrapper modification = new LockWrapper(modificationLock.readLock())) {
+			getTable(tableName).update(rowId, values);
+		}
+	}
+
+	@Override
+	public void delete(@NonNull String tableName, int rowId) {
+		try (LockWrapper lock = new LockWrapper(databaseLock.readLock());
+			 LockWrapper modification = new LockWrapper(modificationLock.readLock())) {
+			getTable(tableName).delete(rowId);
+		}
+	}
+
+	@Value
+	private static class SelectKey {
+		String tableName;
+		int rowId;
+		long sequence;
 	}
 
 	@Override
 	public List<String> select(@NonNull String tableName, int rowId) {
-		return getTable(tableName).select(rowId);
+		try (LockWrapper lock = new LockWrapper(databaseLock.readLock())) {
+			AbstractTableFile<?> table = getTable(tableName);
+			return selectFlights.execute(new SelectKey(tableName, rowId, table.getSequence()),
+					() -> Collections.unmodifiableList(table.select(rowId)));
+		}
+	}
+
+	ReadCoalescingStats getReadCoalescingStats() {
+		long requests = selectFlights.getRequests();
+		long reads = selectFlights.getLoads();
+		return new ReadCoalescingStats(requests, reads, reads == 0 ? 1.0 : (double) requests / reads);
+	}
+
+	CompressionStats getCompressionStats() {
+		int count = 0;
+		long rawSize = 0;
+		long compressedSize = 0;
+		for (AbstractTableFile<?> table : tables.values()) {
+			if (table instanceof CompressedTableFile) {
+				count++;
+				rawSize += ((CompressedTableFile) table).getRawSize();
+				compressedSize += ((CompressedTableFile) table).getCompressedSize();
+			}
+		}
+		return new CompressionStats(count, rawSize, compressedSize,
+				compressedSize == 0 ? 1.0 : (double) rawSize / compressedSize);
+	}
+
+	WarmUpStats getWarmUpStats() {
+		final long elapsedNanos = warmUp.elapsedNanos;
+		final boolean done = elapsedNanos >= 0;
+		return new WarmUpStats(done, warmUp.tables, warmUp.warmed.get(), warmUp.failed.get(),
+				TimeUnit.NANOSECONDS.toMillis(done ? elapsedNanos : System.nanoTime() - warmUp.startNanos));
+	}
+
+	@Override
+	public Map<Integer, List<String>> select(@NonNull String tableName, @NonNull Collection<Integer> rowIds, Long readView) {
+		try (LockWrapper lock = new LockWrapper(databaseLock.readLock())) {
+			return getTable(tableName).select(rowIds, readView);
+		}
+	}
+
+	@Override
+	public Map<Integer, List<String>> scan(@NonNull String tableName, int fromRowId, int limit, Long readView) {
+		try (LockWrapper lock = new LockWrapper(databaseLock.readLock())) {
+			return getTable(tableName).scan(fromRowId, limit, readView);
+		}
+	}
+
+	@Override
+	public long openReadView(@NonNull String tableName) {
+		try (LockWrapper lock = new LockWrapper(databaseLock.readLock())) {
+			return getTable(tableName).openReadView();
+		}
+	}
+
+	@Override
+	public void closeReadView(@NonNull String tableName, long readView) {
+		try (LockWrapper lock = new LockWrapper(databaseLock.readLock())) {
+			getTable(tableName).closeReadView(readView);
+		}
+	}
+
+	@Override
+	public Transaction beginTransaction() {
+		return new FileTransaction();
+	}
+
+	/**
+	 * Buffers operations till commit, all checks are done on commit under the table locks.
+	 */
+	private class FileTransaction implements Transaction {
+		private final List<TransactionOperation> operations = new ArrayList<>();
+
+		@Override
+		public void insert(@NonNull String tableName, @NonNull List<String> values) {
+			operations.add(new TransactionOperation(tableName, null, values));
+		}
+
+		@Override
+		public void update(@NonNull String tableName, int rowId, @NonNull List<String> values) {
+			operations.add(new TransactionOperation(tableName, rowId, values));
+		}
+
+		@Override
+		public List<Integer> commit() {
+			return commitTransaction(operations);
+		}
+	}
+
+	private List<Integer> commitTransaction(List<TransactionOperation> operations) {
+		if (operations.isEmpty()) {
+			return Collections.emptyList();
+		}
+		try (LockWrapper lock = new LockWrapper(databaseLock.readLock());
+			 LockWrapper modification = new LockWrapper(modificationLock.readLock())) {
+			// Tables are locked in name order to avoid deadlocks between transactions
+			SortedMap<String, AbstractTableFile<?>> transactionTables = new TreeMap<>();
+			operations.forEach(operation -> transactionTables.computeIfAbsent(operation.getTable(), this::getTable));
+			List<LockWrapper> tableLocks = new ArrayList<>(transactionTables.size());
+			try {
+				transactionTables.values().forEach(table -> tableLocks.add(table.acquireWriteLock()));
+
+				TransactionRecord record = new TransactionRecord();
+				List<Integer> rowIds = new ArrayList<>(operations.size());
+				for (TransactionOperation operation : operations) {
+					Integer rowId = operation.getRowId();
+					if (rowId != null && rowId >= 0 && transactionTables.get(operation.getTable()).isDeleted(rowId)) {
+						throw new NotFoundException(String.format("Record with ID=%d not found in '%s'",
+								rowId, operation.getTable()));
+					}
+					TransactionRecord.TableChanges changes = record.tables.computeIfAbsent(operation.getTable(),
+							t -> new TransactionRecord.TableChanges(t, transactionTables.get(t).getRowCount()));
+					rowIds.add(addChange(changes, operation));
+				}
+				transactionTables.values().forEach(AbstractTableFile::holdVersions);
+				try {
+					transactionLog.commit(record, this::applyTransaction);
+				} finally {
+					// Readers see the writes of all tables at once, even the ones done before a failure
+					AbstractTableFile.publishHeld(transactionTables.values());
+				}
+				return rowIds;
+			} finally {
+				for (int i = tableLocks.size() - 1; i >= 0; i--) {
+					tableLocks.get(i).close();
+				}
+				// Under the database locks, so restore does not close the log and snapshot does not link it meanwhile
+				transactionLog.checkpointIfNeeded(this::forceTables);
+			}
+		}
+	}
+
+	private static int addChange(TransactionRecord.TableChanges changes, TransactionOperation operation) {
+		List<String> values = Objects.requireNonNull(operation.getValues(), "values");
+		Integer rowId = operation.getRowId();
+		if (rowId == null) {
+			changes.inserts.add(values);
+			return changes.baseRowCount + changes.inserts.size() - 1;
+		}
+		if (rowId >= 0 && rowId < changes.baseRowCount) {
+			changes.updates.put(rowId, values);
+		} else if (rowId >= changes.baseRowCount && rowId < changes.baseRowCount + changes.inserts.size()) {
+			// Row inserted by the same transaction
+			changes.inserts.set(rowId - changes.baseRowCount, values);
+		} else {
+			throw new NotFoundException(String.format("Record with ID=%d not found in '%s'",
+					rowId, changes.tableName));
+		}
+		return rowId;
+	}
+
+	/**
+	 * Applies the transaction changes with one write per table (two if it has both updates and inserts, versions
+	 * are held by the caller). Can be repeated for transactions recovered from the log: table which has grown by
+	 * the transaction inserts or more already has the transaction applied, so it is skipped, and the transaction
+	 * updates are not repeated over newer values.
+	 */
+	private void applyTransaction(TransactionRecord record) {
+		for (TransactionRecord.TableChanges changes : record.tables.values()) {
+			AbstractTableFile<?> table = getTable(changes.tableName);
+			int inserted = table.getRowCount() - changes.baseRowCount;
+			if (inserted != 0 && inserted >= changes.inserts.size()) {
+				log.info("Transaction {} is already applied to table '{}'", record.id, changes.tableName);
+				continue;
+			}
+			if (inserted != 0) {
+				throw new DatabaseException(String.format(
+						"Database internal error: Transaction %d does not match table '%s'", record.id, changes.tableName));
+			}
+			if (!changes.updates.isEmpty()) {
+				table.updateAll(changes.updates);
+			}
+			if (!changes.inserts.isEmpty()) {
+				table.insertAll(changes.inserts);
+			}
+		}
+	}
+
+	@Override
+	public SnapshotInfo createSnapshot() {
+		// Reads go on, only modifications wait till the files are linked
+		try (LockWrapper lock = new LockWrapper(databaseLock.readLock());
+			 LockWrapper modification = new LockWrapper(modificationLock.writeLock())) {
+			return snapshotStorage.create();
+		}
+	}
+
+	@Override
+	public List<SnapshotInfo> listSnapshots() {
+		return snapshotStorage.list();
+	}
+
+	@Override
+	public void restoreSnapshot(@NonNull String snapshotId) {
+		try (LockWrapper lock = new LockWrapper(databaseLock.writeLock())) {
+			// Opened tables cache file state, so they are reopened from the restored files
+			tables.values().forEach(AbstractTableFile::close);
+			tables.clear();
+			transactionLog.close();
+			try {
+				snapshotStorage.restore(snapshotId);
+			} finally {
+				recoverTransactions();
+			}
+		}
+	}
+
+	@Override
+	public void deleteSnapshot(@NonNull String snapshotId) {
+		snapshotStorage.delete(snapshotId);
 	}
 
 }
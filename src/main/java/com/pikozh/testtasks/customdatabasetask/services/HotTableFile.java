@@ -0,0 +1,352 @@
+package com.pikozh.testtasks.customdatabasetask.services;
+
+import com.pikozh.testtasks.customdatabasetask.configs.DatabaseProperties;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Table held in memory outside of the heap. The file has the same format as {@link TableFile} and is kept
+ * up to date for durability, but it is never read after the table is loaded.
+ *
+ * <p>Lines of the file (with separators) are stored in a direct buffer, and their start and end offsets in two
+ * {@code int[]} indexes. So the heap holds only three objects per table, and rows are decoded to strings only
+ * when they are read. Inserts append to the buffer and the indexes beyond the row count of the published
+ * versions, so the versions share them. Updates append the new rows to the free space of the buffer as well,
+ * only the indexes are copied, and the old rows stay as garbage for the published versions. When the buffer is
+ * full, live rows are copied to a new one. The whole table is written as the new file on each update.
+ *
+ * <p>With {@link DatabaseProperties#isHotTablesOffHeap()} disabled the same structure is held in heap buffers,
+ * so GC cost of the two can be compared under the same load.
+ *
+ * @author a.pikozh
+ */
+@Slf4j
+class HotTableFile extends AbstractTableFile<HotTableFile.HotVersion> {
+
+	private static final int MIN_CAPACITY = 4096;
+
+	static class HotVersion extends Version {
+		final ByteBuffer data;
+		// Row with its line separator is data[starts[rowId], ends[rowId]). Updated rows are out of row order
+		final int[] starts;
+		final int[] ends;
+		// Data beyond it is not used by this version and the previous ones
+		final int end;
+
+		HotVersion(long sequence, int rowCount, DataFile file, ByteBuffer data, int[] starts, int[] ends, int end) {
+			super(sequence, rowCount, file);
+			this.data = data;
+			this.starts = starts;
+			this.ends = ends;
+			this.end = end;
+		}
+	}
+
+	private final Path filePath;
+	private final boolean offHeap;
+
+	HotTableFile(@NonNull final String tableName,
+				 @NonNull final DatabaseProperties properties) {
+		super(tableName, properties);
+		log.info("Creating new HotTableFile instance for '{}'", tableName);
+		this.filePath = resolvePath(properties, tableName);
+		this.offHeap = properties.isHotTablesOffHeap();
+
+		try {
+			if (!Files.exists(filePath)) {
+				log.info("File '{}' not exists, creating new", filePath.toAbsolutePath());
+				Files.createDirectories(filePath.toAbsolutePath().getParent());
+				Files.createFile(filePath);
+			}
+			DataFile file = new DataFile(filePath);
+			try {
+				publish(load(file));
+			} catch (IOException | RuntimeException e) {
+				file.release();
+				throw e;
+			}
+			log.info("Table '{}' loaded to memory ({}): {} rows, {} bytes", tableName, offHeap ? "off heap" : "on heap",
+					getRowCount(), getCurrent().end);
+		} catch (IOException e) {
+			log.error(e.getMessage(), e);
+			throw createInternalError(e);
+		}
+	}
+
+	private HotVersion load(DataFile file) throws IOException {
+		FileChannel channel = file.getChannel();
+		final long size = channel.size();
+		ByteBuffer data = allocate(size);
+		while (data.position() < size) {
+			if (channel.read(data, data.position()) < 0) {
+				throw createCorruptedTableError();
+			}
+		}
+
+		int[] starts = new int[MIN_CAPACITY];
+		int[] ends = new int[MIN_CAPACITY];
+		int rowCount = 0;
+		for (int position = 0; position < size; ) {
+			int end = position;
+			while (end < size && data.get(end) != '\n') {
+				end++;
+			}
+			if (rowCount >= starts.length) {
+				starts = Arrays.copyOf(starts, starts.length * 2);
+				ends = Arrays.copyOf(ends, ends.length * 2);
+			}
+			starts[rowCount] = position;
+			position = (int) Math.min(end + 1, size);
+			ends[rowCount++] = position;
+		}
+		return new HotVersion(0, rowCount, file, data, starts, ends, (int) size);
+	}
+
+	@Override
+	int insertAll(List<List<String>> rows) {
+		try (LockWrapper lock = acquireWriteLock()) {
+			HotVersion version = getCurrent();
+			List<byte[]> lines = new ArrayList<>(rows.size());
+			int length = 0;
+			for (List<String> values : rows) {
+				byte[] line = encodeLine(values);
+				lines.add(line);
+				length += line.length;
+			}
+
+			HotVersion target = (long) version.end + length > version.data.capacity()
+					? compact(version, Collections.emptySet(), length)
+					: version;
+			int[] starts = target.starts;
+			int[] ends = target.ends;
+			if (version.rowCount + rows.size() > starts.length) {
+				final int capacity = Math.max(starts.length * 2, version.rowCount + rows.size());
+				starts = Arrays.copyOf(starts, capacity);
+				ends = Arrays.copyOf(ends, capacity);
+			}
+
+			// File is written first, memory is changed only if it succeeds
+			ByteBuffer buffer = ByteBuffer.allocate(length);
+			lines.forEach(buffer::put);
+			Files.write(filePath, buffer.array(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+
+			// Appended bytes and offsets are beyond row count and end of the published versions, so they share
+			// the buffers
+			ByteBuffer data = target.data.duplicate();
+			data.position(target.end);
+			int rowId = version.rowCount;
+			for (byte[] line : lines) {
+				starts[rowId] = data.position();
+				data.put(line);
+				ends[rowId++] = data.position();
+			}
+			publish(new HotVersion(version.sequence + 1, rowId, version.file, target.data, starts, ends,
+					data.position()));
+			return version.rowCount;
+		} catch (IOException e) {
+			log.error(e.getMessage(), e);
+			throw createInternalError(e);
+		}
+	}
+
+	@Override
+	void updateAll(Map<Integer, List<String>> rows) {
+		try (LockWrapper lock = acquireWriteLock()) {
+			HotVersion version = getCurrent();
+			Map<Integer, byte[]> lines = new TreeMap<>();
+			long length = 0;
+			for (Map.Entry<Integer, List<String>> row : rows.entrySet()) {
+				int rowId = row.getKey();
+				if (rowId < 0 || rowId >= version.rowCount) {
+					throw createNotFound(rowId);
+				}
+				byte[] line = encodeLine(row.getValue());
+				lines.put(rowId, line);
+				length += line.length;
+			}
+
+			// New rows go to the free space, so only the indexes are copied unless the buffer is full
+			HotVersion target = (long) version.end + length > version.data.capacity()
+					? compact(version, lines.keySet(), length)
+					: version;
+			int[] starts = target == version ? version.starts.clone() : target.starts;
+			int[] ends = target == version ? version.ends.clone() : target.ends;
+			ByteBuffer data = target.data.duplicate();
+			data.position(target.end);
+			for (Map.Entry<Integer, byte[]> line : lines.entrySet()) {
+				starts[line.getKey()] = data.position();
+				data.put(line.getValue());
+				ends[line.getKey()] = data.position();
+			}
+
+			replaceFile(new HotVersion(version.sequence + 1, version.rowCount, version.file, target.data, starts, ends,
+					data.position()));
+		} catch (IOException e) {
+			log.error(e.getMessage(), e);
+			throw createInternalError(e);
+		}
+	}
+
+	@Override
+	protected HotVersion copyVersion(HotVersion version, long sequence) {
+		return new HotVersion(sequence, version.rowCount, version.file, version.data, version.starts, version.ends,
+				version.end);
+	}
+
+	/**
+	 * Table is in memory already.
+	 */
+	@Override
+	void warmUp(long maxBytes) {
+	}
+
+	@Override
+	void force() {
+		try (LockWrapper lock = acquireWriteLock()) {
+			forceFile(filePath);
+		} catch (IOException e) {
+			log.error(e.getMessage(), e);
+			throw createInternalError(e);
+		}
+	}
+
+	@Override
+	protected void readRows(HotVersion version, int[] rowIds, ObjIntConsumer<String> consumer) {
+		ByteBuffer data = version.data.duplicate();
+		for (int rowId : rowIds) {
+			int start = version.starts[rowId];
+			int end = version.ends[rowId];
+			// Line separator is cut off, "\r\n" as well as "\n"
+			if (end > start && data.get(end - 1) == '\n') end--;
+			if (end > start && data.get(end - 1) == '\r') end--;
+			byte[] line = new byte[end - start];
+			data.position(start);
+			data.get(line);
+			consumer.accept(new String(line, StandardCharsets.UTF_8), rowId);
+		}
+	}
+
+	/**
+	 * Writes rows of the version as the new table file and publishes the version with it.
+	 */
+	private void replaceFile(HotVersion version) throws IOException {
+		final Path tmpTablePath = Path.of(filePath.toAbsolutePath() + "_$tmp");
+		DataFile file;
+		try (FileChannel channel = FileChannel.open(tmpTablePath, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = version.data.duplicate();
+			forEachRun(version, Collections.emptySet(), (fromRowId, toRowId) -> {
+				buffer.limit(version.ends[toRowId - 1]).position(version.starts[fromRowId]);
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			});
+			file = new DataFile(tmpTablePath);
+		} catch (IOException e) {
+			Files.deleteIfExists(tmpTablePath);
+			throw e;
+		}
+		try {
+			Files.move(tmpTablePath, filePath, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			file.release();
+			Files.deleteIfExists(tmpTablePath);
+			throw e;
+		}
+		publish(new HotVersion(version.sequence, version.rowCount, file, version.data, version.starts, version.ends,
+				version.end));
+	}
+
+	/**
+	 * Copies rows of the version to a new buffer in row order, without garbage left by updates.
+	 *
+	 * @param skippedRowIds rows which are replaced by the caller, they are not copied
+	 * @param extraLength   free space needed by the caller
+	 * @return version with the new buffer and indexes
+	 */
+	private HotVersion compact(HotVersion version, Set<Integer> skippedRowIds, long extraLength) {
+		long length = extraLength;
+		for (int rowId = 0; rowId < version.rowCount; rowId++) {
+			if (!skippedRowIds.contains(rowId)) {
+				length += version.ends[rowId] - version.starts[rowId];
+			}
+		}
+		ByteBuffer data = allocate(length);
+		int[] starts = new int[version.starts.length];
+		int[] ends = new int[version.ends.length];
+		ByteBuffer source = version.data.duplicate();
+		try {
+			forEachRun(version, skippedRowIds, (fromRowId, toRowId) -> {
+				final int shift = data.position() - version.starts[fromRowId];
+				for (int rowId = fromRowId; rowId < toRowId; rowId++) {
+					starts[rowId] = version.starts[rowId] + shift;
+					ends[rowId] = version.ends[rowId] + shift;
+				}
+				source.limit(version.ends[toRowId - 1]).position(version.starts[fromRowId]);
+				data.put(source);
+			});
+		} catch (IOException e) {
+			// Not thrown by copying in memory
+			throw new IllegalStateException(e);
+		}
+		log.debug("Table '{}' is compacted to {} bytes", tableName, data.position());
+		return new HotVersion(version.sequence, version.rowCount, version.file, data, starts, ends, data.position());
+	}
+
+	private interface RunConsumer {
+		void accept(int fromRowId, int toRowId) throws IOException;
+	}
+
+	/**
+	 * Calls the consumer for each range of rows, which are stored one after another in row order.
+	 */
+	private static void forEachRun(HotVersion version, Set<Integer> skippedRowIds, RunConsumer consumer)
+			throws IOException {
+		int fromRowId = 0;
+		for (int rowId = 0; rowId <= version.rowCount; rowId++) {
+			boolean runEnds = rowId == version.rowCount || skippedRowIds.contains(rowId)
+					|| (rowId > fromRowId && version.starts[rowId] != version.ends[rowId - 1]);
+			if (!runEnds) {
+				continue;
+			}
+			if (rowId > fromRowId) {
+				consumer.accept(fromRowId, rowId);
+			}
+			fromRowId = skippedRowIds.contains(rowId) ? rowId + 1 : rowId;
+		}
+	}
+
+	private static byte[] encodeLine(List<String> values) {
+		return (RowFormat.packValues(values) + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Allocates buffer with some room for inserts.
+	 */
+	private ByteBuffer allocate(long length) {
+		if (length > Integer.MAX_VALUE) {
+			throw createInternalError(String.format("Table '%s' is too big to be held in memory", tableName));
+		}
+		long capacity = Math.max(MIN_CAPACITY, length + length / 4);
+		final int size = (int) Math.min(capacity, Integer.MAX_VALUE);
+		return offHeap ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+	}
+
+}
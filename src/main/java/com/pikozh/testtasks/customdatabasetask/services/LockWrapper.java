@@ -0,0 +1,23 @@
+package com.pikozh.testtasks.customdatabasetask.services;
+
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Helper lock class which can be used in try-with-resources block instead of classic
+ * try-finally block. As for me it is safer in terms of human mistake, but creates additional wrapper object.
+ *
+ * @author a.pikozh
+ */
+class LockWrapper implements AutoCloseable {
+	final Lock lock;
+
+	LockWrapper(Lock lock) {
+		this.lock = lock;
+		lock.lock();
+	}
+
+	@Override
+	public void close() {
+		lock.unlock();
+	}
+}
@@ -0,0 +1,58 @@
+package com.pikozh.testtasks.customdatabasetask.services;
+
+import com.pikozh.testtasks.customdatabasetask.configs.DatabaseProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Global budget of memory used by table operations, shared by all tables. Operations which need a lot of memory
+ * reserve it first and fall back to a streaming algorithm if the budget is exhausted, so concurrent operations
+ * on many tables cannot overflow the heap together.
+ *
+ * @author a.pikozh
+ */
+@Slf4j
+@Component
+class MemoryAccountant {
+
+	private final long budget;
+	private final AtomicLong reserved = new AtomicLong();
+
+	MemoryAccountant(DatabaseProperties properties) {
+		this.budget = properties.getMemoryBudget() != null
+				? properties.getMemoryBudget().toBytes()
+				: Runtime.getRuntime().maxMemory() / 8;
+		log.info("Memory budget of table operations: {} bytes", budget);
+	}
+
+	/**
+	 * @return false if the budget does not have enough memory, nothing is reserved then
+	 */
+	boolean tryReserve(long bytes) {
+		while (true) {
+			long current = reserved.get();
+			if (current + bytes > budget) {
+				log.debug("Cannot reserve {} bytes, {} of {} already reserved", bytes, current, budget);
+				return false;
+			}
+			if (reserved.compareAndSet(current, current + bytes)) {
+				return true;
+			}
+		}
+	}
+
+	void release(long bytes) {
+		reserved.addAndGet(-bytes);
+	}
+
+	long getBudget() {
+		return budget;
+	}
+
+	long getReserved() {
+		return reserved.get();
+	}
+
+}
@@ -0,0 +1,88 @@
+package com.pikozh.testtasks.customdatabasetask.services;
+
+import lombok.NonNull;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Text representation of a single table row, shared by all table file formats.
+ *
+ * @author a.pikozh
+ */
+final class RowFormat {
+
+	private RowFormat() {
+	}
+
+	/**
+	 * Escape some characters with "\" and add quotes for empty strings (""):
+	 *   \     -> \\
+	 *   ,     -> \c
+	 *   "     -> \"
+	 *   (CR)  -> \r
+	 *   (LF)  -> \n
+	 *   (TAB) -> \t
+	 * Other characters (even unprintable) currently not touched.
+	 *
+	 * @param value unescaped string
+	 * @return escaped string
+	 */
+	private static String escape(String value) {
+		if (value.isEmpty()) return "\"\"";
+		return value
+				.replace("\\", "\\\\")
+				.replace(",", "\\c")
+				.replace("\"", "\\\"")
+				.replace("\r", "\\r")
+				.replace("\n", "\\n")
+				.replace("\t", "\\t");
+	}
+
+	/**
+	 * Unescape characters, that escaped with {@link #escape(String) escape} method, and remove quotes if needed.
+	 * Unknown escape sequences replaced with escape code (e.g \x -> x).
+	 *
+	 * @param value escaped string
+	 * @return unescaped string
+	 */
+	private static String unescape(String value) {
+		if (value.startsWith("\"") && value.endsWith("\"")) {
+			value = value.substring(1, value.length() - 1);
+		}
+		final char ESC = '\\';
+		StringBuilder builder = new StringBuilder(value.length());
+		for (int i = 0; i < value.length(); i++) {
+			if (value.charAt(i) != ESC) {
+				builder.append(value.charAt(i));
+			} else if (++i < value.length()) {
+				char escVal = value.charAt(i);
+				if (escVal == 'c')
+					builder.append(',');
+				else if (escVal == 'r')
+					builder.append('\r');
+				else if (escVal == 'n')
+					builder.append('\n');
+				else if (escVal == 't')
+					builder.append('\t');
+				else
+					builder.append(escVal);
+			}
+		}
+		return builder.toString();
+	}
+
+	static List<String> unpackValues(@NonNull String data) {
+		if (data.isEmpty()) {
+			return Collections.emptyList();
+		}
+		return Stream.of(data.split(",", -1)).map(RowFormat::unescape).collect(Collectors.toList());
+	}
+
+	static String packValues(List<String> values) {
+		return values.stream().map(RowFormat::escape).collect(Collectors.joining(","));
+	}
+
+}
@@ -0,0 +1,66 @@
+package com.pikozh.testtasks.customdatabasetask.services;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls with equal keys: the first caller loads the value, callers coming while it is loading
+ * wait for the same result (or exception). Nothing is cached after the load completes.
+ *
+ * @param <K> key type, must implement equals / hashCode
+ * @param <V> value type, values are shared between callers so they must not be modified
+ * @author a.pikozh
+ */
+final class SingleFlight<K, V> {
+
+	private final ConcurrentMap<K, CompletableFuture<V>> flights = new ConcurrentHashMap<>();
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder loads = new LongAdder();
+
+	V execute(K key, Supplier<V> loader) {
+		requests.increment();
+		CompletableFuture<V> flight = new CompletableFuture<>();
+		CompletableFuture<V> existing = flights.putIfAbsent(key, flight);
+		if (existing != null) {
+			return join(existing);
+		}
+		loads.increment();
+		try {
+			V value = loader.get();
+			flight.complete(value);
+			return value;
+		} catch (RuntimeException | Error e) {
+			flight.completeExceptionally(e);
+			throw e;
+		} finally {
+			flights.remove(key, flight);
+		}
+	}
+
+	long getRequests() {
+		return requests.sum();
+	}
+
+	long getLoads() {
+		return loads.sum();
+	}
+
+	private static <V> V join(CompletableFuture<V> flight) {
+		try {
+			return flight.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+}
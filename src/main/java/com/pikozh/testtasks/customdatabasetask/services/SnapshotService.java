@@ -0,0 +1,35 @@
+package com.pikozh.testtasks.customdatabasetask.services;
+
+import com.pikozh.testtasks.customdatabasetask.model.SnapshotInfo;
+import com.pikozh.testtasks.customdatabasetask.model.exceptions.NotFoundException;
+
+import java.util.List;
+
+public interface SnapshotService {
+	/**
+	 * Captures a consistent state of all tables. Database operations are suspended only while table files are
+	 * linked into the snapshot, data itself is not copied.
+	 *
+	 * @return description of the created snapshot
+	 */
+	SnapshotInfo createSnapshot();
+
+	/**
+	 * @return descriptions of all existing snapshots
+	 */
+	List<SnapshotInfo> listSnapshots();
+
+	/**
+	 * Replaces all tables with their state captured in the given snapshot. The snapshot itself is kept.
+	 *
+	 * @param snapshotId ID of the snapshot to restore
+	 * @throws NotFoundException if the snapshot does not exist
+	 */
+	void restoreSnapshot(String snapshotId);
+
+	/**
+	 * @param snapshotId ID of the snapshot to delete
+	 * @throws NotFoundException if the snapshot does not exist
+	 */
+	void deleteSnapshot(String snapshotId);
+}
@@ -0,0 +1,310 @@
+package com.pikozh.testtasks.customdatabasetask.services;
+
+import com.pikozh.testtasks.customdatabasetask.configs.DatabaseProperties;
+import com.pikozh.testtasks.customdatabasetask.model.SnapshotInfo;
+import com.pikozh.testtasks.customdatabasetask.model.exceptions.DatabaseException;
+import com.pikozh.testtasks.customdatabasetask.model.exceptions.NotFoundException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * File operations of database snapshots. Callers are responsible for suspending database modifications.
+ *
+ * <p>Snapshot is a directory with hard links to all table files and a manifest with file lengths at the moment of
+ * snapshot. Table files are only appended or replaced atomically, so the linked data stays unchanged, except for
+ * rows appended later, which are cut off on restore by the manifest lengths. If hard links are not supported,
+ * files are copied.
+ *
+ * @author a.pikozh
+ */
+@Slf4j
+@Component
+class SnapshotStorage {
+
+	private static final Pattern SNAPSHOT_ID_PATTERN = Pattern.compile("[\\w.-]+");
+	private static final DateTimeFormatter SNAPSHOT_ID_FORMATTER =
+			DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS").withZone(ZoneOffset.UTC);
+	private static final String MANIFEST_FILE = "_$manifest";
+	private static final String TMP_SUFFIX = "_$tmp";
+	private static final String SERVICE_SUFFIX_START = "_$";
+	private static final String STAGING_DIRECTORY = "_$restore";
+	private static final String REPLACED_DIRECTORY = "_$replaced";
+
+	private final Path databasePath;
+	private final Path snapshotsPath;
+
+	SnapshotStorage(DatabaseProperties properties) {
+		this.databasePath = Path.of(properties.getLocation()).toAbsolutePath();
+		String location = properties.getSnapshot().getLocation();
+		this.snapshotsPath = location != null
+				? Path.of(location).toAbsolutePath()
+				: databasePath.resolveSibling(databasePath.getFileName() + "-snapshots");
+	}
+
+	/**
+	 * Manifest file: creation time (epoch millis) on the first line, then "file length" lines.
+	 */
+	private static class Manifest {
+		long created;
+		final Map<String, Long> files = new LinkedHashMap<>();
+	}
+
+	SnapshotInfo create() {
+		final Instant now = Instant.now();
+		try {
+			Path snapshotPath = createSnapshotDirectory(SNAPSHOT_ID_FORMATTER.format(now));
+			List<String> manifest = new ArrayList<>();
+			manifest.add(String.valueOf(now.toEpochMilli()));
+			for (Path file : listDatabaseFiles()) {
+				long length = Files.size(file);
+				linkOrCopy(file, snapshotPath.resolve(file.getFileName()), length);
+				manifest.add(file.getFileName() + " " + length);
+			}
+			// Manifest is written last, snapshot directory without it is incomplete and ignored
+			Path tmpManifestPath = snapshotPath.resolve(MANIFEST_FILE + TMP_SUFFIX);
+			Files.write(tmpManifestPath, manifest);
+			Files.move(tmpManifestPath, snapshotPath.resolve(MANIFEST_FILE), StandardCopyOption.REPLACE_EXISTING);
+
+			SnapshotInfo info = readInfo(snapshotPath);
+			log.info("Snapshot created: {}", info);
+			return info;
+		} catch (IOException e) {
+			log.error(e.getMessage(), e);
+			throw createInternalError(e);
+		}
+	}
+
+	List<SnapshotInfo> list() {
+		if (!Files.isDirectory(snapshotsPath)) {
+			return Collections.emptyList();
+		}
+		try (Stream<Path> paths = Files.list(snapshotsPath)) {
+			List<Path> snapshotPaths = paths
+					.filter(path -> Files.isRegularFile(path.resolve(MANIFEST_FILE)))
+					.sorted()
+					.collect(Collectors.toList());
+			List<SnapshotInfo> result = new ArrayList<>(snapshotPaths.size());
+			for (Path snapshotPath : snapshotPaths) {
+				result.add(readInfo(snapshotPath));
+			}
+			return result;
+		} catch (IOException e) {
+			log.error(e.getMessage(), e);
+			throw createInternalError(e);
+		}
+	}
+
+	/**
+	 * Replaces all database files with the snapshot ones. Files are linked back if they were not appended
+	 * after the snapshot, so restore does not depend on data size in most cases.
+	 *
+	 * <p>Snapshot files are prepared in a staging directory inside the database location and moved in by rename,
+	 * database files are deleted only after that. So failed restore leaves the database as it was.
+	 */
+	void restore(String snapshotId) {
+		final Path snapshotPath = resolveSnapshot(snapshotId);
+		final Path stagingPath = databasePath.resolve(STAGING_DIRECTORY);
+		final Path replacedPath = databasePath.resolve(REPLACED_DIRECTORY);
+		try {
+			Manifest manifest = readManifest(snapshotPath);
+			for (Map.Entry<String, Long> entry : manifest.files.entrySet()) {
+				if (Files.size(snapshotPath.resolve(entry.getKey())) < entry.getValue()) {
+					throw new DatabaseException("Database internal error: Corrupted snapshot file: " + entry.getKey());
+				}
+			}
+
+			// Left by a failed restore
+			FileSystemUtils.deleteRecursively(stagingPath);
+			FileSystemUtils.deleteRecursively(replacedPath);
+			Files.createDirectories(stagingPath);
+			for (Map.Entry<String, Long> entry : manifest.files.entrySet()) {
+				Path source = snapshotPath.resolve(entry.getKey());
+				Path target = stagingPath.resolve(entry.getKey());
+				if (Files.size(source) == entry.getValue()) {
+					linkOrCopy(source, target, entry.getValue());
+				} else {
+					copy(source, target, entry.getValue());
+				}
+			}
+
+			swap(stagingPath, replacedPath, manifest.files.keySet());
+			FileSystemUtils.deleteRecursively(replacedPath);
+			FileSystemUtils.deleteRecursively(stagingPath);
+			log.info("Snapshot '{}' restored ({} files)", snapshotId, manifest.files.size());
+		} catch (IOException e) {
+			log.error(e.getMessage(), e);
+			deleteStaging(stagingPath);
+			throw createInternalError(e);
+		}
+	}
+
+	/**
+	 * Moves database files to the replaced directory and staged files to the database location. Database files
+	 * are moved back if it fails.
+	 */
+	private void swap(Path stagingPath, Path replacedPath, Collection<String> stagedFiles) throws IOException {
+		List<Path> databaseFiles = listDatabaseFiles();
+		Files.createDirectories(replacedPath);
+		List<Path> replaced = new ArrayList<>();
+		List<Path> restored = new ArrayList<>();
+		try {
+			for (Path file : databaseFiles) {
+				Files.move(file, replacedPath.resolve(file.getFileName()), StandardCopyOption.ATOMIC_MOVE);
+				replaced.add(file);
+			}
+			for (String file : stagedFiles) {
+				Path target = databasePath.resolve(file);
+				Files.move(stagingPath.resolve(file), target, StandardCopyOption.ATOMIC_MOVE);
+				restored.add(target);
+			}
+		} catch (IOException e) {
+			for (Path file : restored) {
+				Files.delete(file);
+			}
+			for (Path file : replaced) {
+				Files.move(replacedPath.resolve(file.getFileName()), file, StandardCopyOption.ATOMIC_MOVE);
+			}
+			throw e;
+		}
+	}
+
+	private static void deleteStaging(Path stagingPath) {
+		try {
+			FileSystemUtils.deleteRecursively(stagingPath);
+		} catch (IOException e) {
+			log.warn("Cannot delete '{}': {}", stagingPath, e.getMessage());
+		}
+	}
+
+	void delete(String snapshotId) {
+		final Path snapshotPath = resolveSnapshot(snapshotId);
+		try {
+			// Manifest goes first, so partially deleted snapshot is not listed anymore
+			Files.delete(snapshotPath.resolve(MANIFEST_FILE));
+			try (Stream<Path> paths = Files.list(snapshotPath)) {
+				for (Path file : paths.collect(Collectors.toList())) {
+					Files.delete(file);
+				}
+			}
+			Files.delete(snapshotPath);
+			log.info("Snapshot '{}' deleted", snapshotId);
+		} catch (IOException e) {
+			log.error(e.getMessage(), e);
+			throw createInternalError(e);
+		}
+	}
+
+	private Path resolveSnapshot(String snapshotId) {
+		if (!SNAPSHOT_ID_PATTERN.matcher(snapshotId).matches()) {
+			log.debug("Invalid snapshot ID: '{}'", snapshotId);
+			throw new IllegalArgumentException("Invalid snapshot ID: " + snapshotId);
+		}
+		Path snapshotPath = snapshotsPath.resolve(snapshotId);
+		if (!Files.isRegularFile(snapshotPath.resolve(MANIFEST_FILE))) {
+			throw new NotFoundException(String.format("Snapshot '%s' not found", snapshotId));
+		}
+		return snapshotPath;
+	}
+
+	private Path createSnapshotDirectory(String baseId) throws IOException {
+		Files.createDirectories(snapshotsPath);
+		for (int i = 0; ; i++) {
+			try {
+				return Files.createDirectory(snapshotsPath.resolve(i == 0 ? baseId : baseId + "-" + i));
+			} catch (FileAlreadyExistsException e) {
+				log.debug("Snapshot directory '{}' already exists", e.getFile());
+			}
+		}
+	}
+
+	private List<Path> listDatabaseFiles() throws IOException {
+		if (!Files.isDirectory(databasePath)) {
+			return Collections.emptyList();
+		}
+		try (Stream<Path> paths = Files.list(databasePath)) {
+			return paths
+					.filter(Files::isRegularFile)
+					.filter(path -> !path.getFileName().toString().endsWith(TMP_SUFFIX))
+					.sorted()
+					.collect(Collectors.toList());
+		}
+	}
+
+	private void linkOrCopy(Path source, Path target, long length) throws IOException {
+		try {
+			Files.createLink(target, source);
+			return;
+		} catch (IOException | UnsupportedOperationException e) {
+			log.debug("Cannot link '{}' to '{}', copying: {}", source, target, e.getMessage());
+		}
+		copy(source, target, length);
+	}
+
+	private static void copy(Path source, Path target, long length) throws IOException {
+		try (
+				FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+				FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)
+		) {
+			long position = 0;
+			while (position < length) {
+				position += in.transferTo(position, length - position, out);
+			}
+		}
+	}
+
+	private static Manifest readManifest(Path snapshotPath) throws IOException {
+		List<String> lines = Files.readAllLines(snapshotPath.resolve(MANIFEST_FILE));
+		Manifest manifest = new Manifest();
+		try {
+			manifest.created = Long.parseLong(lines.get(0));
+			for (String line : lines.subList(1, lines.size())) {
+				int separator = line.lastIndexOf(' ');
+				manifest.files.put(line.substring(0, separator), Long.parseLong(line.substring(separator + 1)));
+			}
+		} catch (IndexOutOfBoundsException | NumberFormatException e) {
+			throw new DatabaseException("Database internal error: Corrupted snapshot manifest: " + snapshotPath, e);
+		}
+		return manifest;
+	}
+
+	private static SnapshotInfo readInfo(Path snapshotPath) throws IOException {
+		Manifest manifest = readManifest(snapshotPath);
+		List<String> tables = manifest.files.keySet().stream()
+				.map(file -> file.contains(SERVICE_SUFFIX_START)
+						? file.substring(0, file.indexOf(SERVICE_SUFFIX_START))
+						: file)
+				.filter(table -> !table.isEmpty())
+				.distinct()
+				.sorted()
+				.collect(Collectors.toList());
+		long size = manifest.files.values().stream().mapToLong(Long::longValue).sum();
+		return new SnapshotInfo(snapshotPath.getFileName().toString(), new Date(manifest.created), tables, size);
+	}
+
+	private static DatabaseException createInternalError(Throwable e) {
+		return new DatabaseException("Database internal error: " + e.getMessage(), e);
+	}
+
+}
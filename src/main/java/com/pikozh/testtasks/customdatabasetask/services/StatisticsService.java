@@ -0,0 +1,28 @@
+package com.pikozh.testtasks.customdatabasetask.services;
+
+import com.pikozh.testtasks.customdatabasetask.model.AdmissionStats;
+import com.pikozh.testtasks.customdatabasetask.model.CompressionStats;
+import com.pikozh.testtasks.customdatabasetask.model.ReadCoalescingStats;
+import com.pikozh.testtasks.customdatabasetask.model.WarmUpStats;
+
+public interface StatisticsService {
+	/**
+	 * @return counters of single row selects since start
+	 */
+	ReadCoalescingStats getReadCoalescingStats();
+
+	/**
+	 * @return state of admission control queues and counters since start
+	 */
+	AdmissionStats getAdmissionStats();
+
+	/**
+	 * @return sizes of the open compressed tables
+	 */
+	CompressionStats getCompressionStats();
+
+	/**
+	 * @return progress of opening tables at startup
+	 */
+	WarmUpStats getWarmUpStats();
+}
@@ -1,8 +1,6 @@
 package com.pikozh.testtasks.customdatabasetask.services;
 
 import com.pikozh.testtasks.customdatabasetask.configs.DatabaseProperties;
-import com.pikozh.testtasks.customdatabasetask.model.exceptions.DatabaseException;
-import com.pikozh.testtasks.customdatabasetask.model.exceptions.NotFoundException;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 
@@ -10,72 +8,117 @@ import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.ObjIntConsumer;
 
 /**
+ * Plain text table file, one line per row.
+ *
+ * <p>Versions keep a sparse line index (offsets of every {@link #INDEX_STEP}-th line), so reading a row starts
+ * near it instead of the file beginning. The index is built on opening while lines are counted, and on every
+ * write from the written lines.
+ *
  * @author a.pikozh
  */
 @Slf4j
-class TableFile {
+class TableFile extends AbstractTableFile<TableFile.IndexedVersion> {
+
+	static final int INDEX_STEP = 64;
+	private static final int LINE_SEPARATOR_LENGTH = System.lineSeparator().length();
+
+	static class IndexedVersion extends Version {
+		// Lines are only appended to the file of the version, so versions of the same file share the index array
+		final long[] lineOffsets;
+		final long length;
+
+		IndexedVersion(long sequence, int rowCount, DataFile file, long[] lineOffsets, long length) {
+			super(sequence, rowCount, file);
+			this.lineOffsets = lineOffsets;
+			this.length = length;
+		}
+
+		IndexedVersion(long sequence, DataFile file, LineIndexBuilder index) {
+			this(sequence, index.rowCount, file, index.lineOffsets, index.length);
+		}
+	}
 
 	/**
-	 * Helper lock class which can be used in try-with-resources block instead of classic
-	 * try-finally block. As for me it is safer in terms of human mistake, but creates additional wrapper object.
+	 * Collects offsets of lines written (or read) one by one.
 	 */
-	static class LockWrapper implements AutoCloseable {
-		final Lock lock;
+	private static class LineIndexBuilder {
+		long[] lineOffsets;
+		int rowCount;
+		long length;
 
-		private LockWrapper(Lock lock) {
-			this.lock = lock;
-			lock.lock();
+		LineIndexBuilder() {
+			this.lineOffsets = new long[16];
 		}
 
-		@Override
-		public void close() {
-			lock.unlock();
+		/**
+		 * Continues the index of the version. Entries are added beyond the ones used by the version.
+		 */
+		LineIndexBuilder(IndexedVersion version) {
+			this.lineOffsets = version.lineOffsets;
+			this.rowCount = version.rowCount;
+			this.length = version.length;
+		}
+
+		void addLine(long lineLength) {
+			if (rowCount % INDEX_STEP == 0) {
+				int index = rowCount / INDEX_STEP;
+				if (index >= lineOffsets.length) {
+					lineOffsets = Arrays.copyOf(lineOffsets, lineOffsets.length * 2);
+				}
+				lineOffsets[index] = length;
+			}
+			rowCount++;
+			length += lineLength;
 		}
 	}
 
-	private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
-	private final String tableName;
+	// Lines held in memory are strings: up to 2 bytes per char, plus headers of the string and its array
+	private static final int BYTES_PER_CHAR = 2;
+	private static final int LINE_OVERHEAD = 48;
+
 	private final Path filePath;
-	private final DatabaseProperties properties;
-	private int nextRowId; // count
+	private final MemoryAccountant memoryAccountant;
 
 	TableFile(@NonNull final String tableName,
-			  @NonNull final DatabaseProperties properties) {
+			  @NonNull final DatabaseProperties properties,
+			  @NonNull final MemoryAccountant memoryAccountant) {
+		super(tableName, properties);
+		this.memoryAccountant = memoryAccountant;
 		log.info("Creating new TableFile instance for '{}' (props:{})", tableName, properties);
-		this.tableName = tableName;
-		this.properties = properties;
-		String location = properties.getLocation();
-		String fileName = location.endsWith("/") ? location + tableName : location + "/" + tableName;
-		File file = new File(fileName);
-		this.filePath = file.toPath();
+		this.filePath = resolvePath(properties, tableName);
+		File file = filePath.toFile();
 
 		try {
 			if (!file.exists()) {
 				log.info("File '{}' not exists, creating new", file.getAbsolutePath());
 				file.getParentFile().mkdirs();
 				file.createNewFile();
-				nextRowId = 0;
 			} else {
 				log.info("File '{}' exists, checking contents", file.getAbsolutePath());
 				// Here must be check for file integrity. Skipped for now
-				try (Stream<String> lineStream = Files.lines(filePath)) {
-					nextRowId = (int) lineStream.count();
-				}
-				log.info("File '{}' contains {} rows", file.getAbsolutePath(), nextRowId);
 			}
+			DataFile dataFile = new DataFile(filePath);
+			try {
+				publish(loadIndex(dataFile));
+			} catch (IOException | RuntimeException e) {
+				dataFile.release();
+				throw e;
+			}
+			log.info("File '{}' contains {} rows", file.getAbsolutePath(), getRowCount());
 			log.info("TableFile instance successfully created");
 		} catch (IOException e) {
 			log.error(e.getMessage(), e);
@@ -83,181 +126,211 @@ class TableFile {
 		}
 	}
 
-
-	private LockWrapper acquireWriteLock() {
-		return new LockWrapper(readWriteLock.writeLock());
-	}
-
-	private LockWrapper acquireReadLock() {
-		return new LockWrapper(readWriteLock.readLock());
+	/**
+	 * Counts lines of the file and collects the line index. Last line without line separator is counted too.
+	 */
+	private IndexedVersion loadIndex(DataFile file) throws IOException {
+		LineIndexBuilder index = new LineIndexBuilder();
+		try (InputStream in = file.newInputStream()) {
+			byte[] buffer = new byte[64 * 1024];
+			long lineLength = 0;
+			for (int n; (n = in.read(buffer)) >= 0; ) {
+				for (int i = 0; i < n; i++) {
+					lineLength++;
+					if (buffer[i] == '\n') {
+						index.addLine(lineLength);
+						lineLength = 0;
+					}
+				}
+			}
+			if (lineLength > 0) {
+				index.addLine(lineLength);
+			}
+		}
+		return new IndexedVersion(0, file, index);
 	}
 
-	int insert(List<String> values) {
+	@Override
+	int insertAll(List<List<String>> rows) {
 		try (LockWrapper lock = acquireWriteLock()) {
-			Files.writeString(
-					filePath,
-					packValues(values) + System.lineSeparator(),
-					StandardOpenOption.CREATE, StandardOpenOption.APPEND
-			);
-			return nextRowId++;
+			IndexedVersion version = getCurrent();
+			StringBuilder lines = new StringBuilder();
+			LineIndexBuilder index = new LineIndexBuilder(version);
+			for (List<String> values : rows) {
+				String line = RowFormat.packValues(values);
+				lines.append(line).append(System.lineSeparator());
+				index.addLine(utf8Length(line) + LINE_SEPARATOR_LENGTH);
+			}
+			Files.writeString(filePath, lines, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+			// Appended rows are beyond row count of the pinned versions, so the same file and index are shared
+			publish(new IndexedVersion(version.sequence + 1, version.file, index));
+			return version.rowCount;
 		} catch (IOException e) {
 			log.error(e.getMessage(), e);
 			throw createInternalError(e);
 		}
 	}
 
-	void update(int rowId, List<String> values) {
+	@Override
+	void updateAll(Map<Integer, List<String>> rows) {
 		try (LockWrapper lock = acquireWriteLock()) {
-			if (rowId >= nextRowId) {
-				throw createNotFound(rowId);
+			IndexedVersion version = getCurrent();
+			int nextRowId = version.rowCount;
+			for (int rowId : rows.keySet()) {
+				if (rowId < 0 || rowId >= nextRowId) {
+					throw createNotFound(rowId);
+				}
 			}
-			if (nextRowId < properties.getMaxRowsInMemory()) {
-				List<String> lines = Files.readAllLines(filePath);
-				if (lines.size() != nextRowId) {
-					throw createCorruptedTableError();
+			final Path tmpTablePath = getTmpTablePath();
+			// Table is rewritten in memory only if the whole table fits into the budget left by other tables
+			final long memory = version.length * BYTES_PER_CHAR + (long) nextRowId * LINE_OVERHEAD;
+			LineIndexBuilder index;
+			if (memoryAccountant.tryReserve(memory)) {
+				try {
+					index = updateInMemory(tmpTablePath, nextRowId, rows);
+				} finally {
+					memoryAccountant.release(memory);
 				}
-				lines.set(rowId, packValues(values));
-				Files.writeString(
-						filePath,
-						String.join(System.lineSeparator(), lines) + System.lineSeparator()
-				);
 			} else {
-				updateWithTmpTable(rowId, values);
+				log.debug("Table '{}' needs {} bytes to update in memory, updating with tmp table", tableName, memory);
+				index = updateWithTmpTable(tmpTablePath, nextRowId, rows);
 			}
+			replaceFile(tmpTablePath, version, index);
 		} catch (IOException e) {
 			log.error(e.getMessage(), e);
 			throw createInternalError(e);
 		}
 	}
 
-	private void updateWithTmpTable(int rowId, List<String> values) throws IOException {
-		final Path tmpTablePath = Path.of(filePath.toAbsolutePath() + "_$tmp");
+	@Override
+	protected IndexedVersion copyVersion(IndexedVersion version, long sequence) {
+		return new IndexedVersion(sequence, version.rowCount, version.file, version.lineOffsets, version.length);
+	}
+
+	@Override
+	void force() {
+		try (LockWrapper lock = acquireWriteLock()) {
+			forceFile(filePath);
+		} catch (IOException e) {
+			log.error(e.getMessage(), e);
+			throw createInternalError(e);
+		}
+	}
+
+	/**
+	 * Replaces table file with the rewritten one. New file is opened before the move, so the new version
+	 * references exactly the moved file, while older versions keep reading the replaced one.
+	 */
+	private void replaceFile(Path tmpTablePath, IndexedVersion version, LineIndexBuilder index) throws IOException {
+		DataFile file = new DataFile(tmpTablePath);
+		try {
+			Files.move(tmpTablePath, filePath, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			file.release();
+			Files.deleteIfExists(tmpTablePath);
+			throw e;
+		}
+		publish(new IndexedVersion(version.sequence + 1, file, index));
+	}
+
+	private Path getTmpTablePath() {
+		return Path.of(filePath.toAbsolutePath() + "_$tmp");
+	}
+
+	private LineIndexBuilder updateInMemory(Path tmpTablePath, int nextRowId, Map<Integer, List<String>> rows)
+			throws IOException {
+		List<String> lines = Files.readAllLines(filePath);
+		if (lines.size() != nextRowId) {
+			throw createCorruptedTableError();
+		}
+		rows.forEach((rowId, values) -> lines.set(rowId, RowFormat.packValues(values)));
+		// Lines are written one by one, without joining them into another copy of the table
+		Files.write(tmpTablePath, lines);
+		LineIndexBuilder index = new LineIndexBuilder();
+		lines.forEach(line -> index.addLine(utf8Length(line) + LINE_SEPARATOR_LENGTH));
+		return index;
+	}
+
+	private LineIndexBuilder updateWithTmpTable(Path tmpTablePath, int nextRowId, Map<Integer, List<String>> rows)
+			throws IOException {
+		LineIndexBuilder index = new LineIndexBuilder();
 		try (
 				BufferedReader reader = Files.newBufferedReader(filePath);
 				BufferedWriter writer = Files.newBufferedWriter(tmpTablePath)
 		) {
-			moveLines(reader, writer, rowId);
+			int lineNo = 0;
+			for (Map.Entry<Integer, List<String>> row : new TreeMap<>(rows).entrySet()) {
+				moveLines(reader, writer, row.getKey() - lineNo, index);
 
-			String line = reader.readLine();
-			if (line == null) throw createCorruptedTableError();
-			line = packValues(values);
-			writer.write(line + System.lineSeparator());
+				String line = reader.readLine();
+				if (line == null) throw createCorruptedTableError();
+				line = RowFormat.packValues(row.getValue());
+				writer.write(line + System.lineSeparator());
+				index.addLine(utf8Length(line) + LINE_SEPARATOR_LENGTH);
+				lineNo = row.getKey() + 1;
+			}
 
-			moveLines(reader, writer, nextRowId - rowId - 1);
+			moveLines(reader, writer, nextRowId - lineNo, index);
 
-			line = reader.readLine();
+			String line = reader.readLine();
 			if (line != null) throw createCorruptedTableError();
 		} catch (IOException e) {
 			Files.deleteIfExists(tmpTablePath);
 			throw e;
 		}
-		Files.move(tmpTablePath, filePath, StandardCopyOption.REPLACE_EXISTING);
+		return index;
 	}
 
-	private void moveLines(BufferedReader reader, BufferedWriter writer, int count) throws IOException {
+	private void moveLines(BufferedReader reader, BufferedWriter writer, int count, LineIndexBuilder index)
+			throws IOException {
 		for (int i = 0; i < count; i++) {
 			String line = reader.readLine();
 			if (line == null) throw createCorruptedTableError();
 			writer.write(line + System.lineSeparator());
+			index.addLine(utf8Length(line) + LINE_SEPARATOR_LENGTH);
 		}
 	}
 
-	List<String> select(int rowId) throws NotFoundException {
-		try (LockWrapper lock = acquireReadLock()) {
-			if (rowId >= nextRowId) {
-				throw createNotFound(rowId);
-			}
-			try (Stream<String> lineStream = Files.lines(filePath)) {
-				return unpackValues(lineStream.skip(rowId).findFirst().orElseThrow(this::createCorruptedTableError));
-			} catch (IOException e) {
-				log.error(e.getMessage(), e);
-				throw createInternalError(e);
-			}
-		}
-	}
-
-	private NotFoundException createNotFound(int rowId) {
-		return new NotFoundException(String.format("Record with ID=%d not found in '%s'", rowId, tableName));
-	}
-
-	private DatabaseException createInternalError(String msg) {
-		return new DatabaseException("Database internal error: " + msg);
-	}
-
-	private DatabaseException createCorruptedTableError() {
-		return new DatabaseException("Database internal error: Corrupted table file: " + tableName);
-	}
-
-	private DatabaseException createInternalError(Throwable e) {
-		return new DatabaseException("Database internal error: " + e.getMessage(), e);
-	}
-
 	/**
-	 * Escape some characters with "\" and add quotes for empty strings (""):
-	 *   \     -> \\
-	 *   ,     -> \c
-	 *   "     -> \"
-	 *   (CR)  -> \r
-	 *   (LF)  -> \n
-	 *   (TAB) -> \t
-	 * Other characters (even unprintable) currently not touched.
-	 *
-	 * @param value unescaped string
-	 * @return escaped string
+	 * @return number of bytes of the string in UTF-8, without encoding it
 	 */
-	private static String escape(String value) {
-		if (value.isEmpty()) return "\"\"";
-		return value
-				.replace("\\", "\\\\")
-				.replace(",", "\\c")
-				.replace("\"", "\\\"")
-				.replace("\r", "\\r")
-				.replace("\n", "\\n")
-				.replace("\t", "\\t");
-	}
-
-	/**
-	 * Unescape characters, that escaped with {@link #escape(String) escape} method, and remove quotes if needed.
-	 * Unknown escape sequences replaced with escape code (e.g \x -> x).
-	 *
-	 * @param value escaped string
-	 * @return unescaped string
-	 */
-	private static String unescape(String value) {
-		if (value.startsWith("\"") && value.endsWith("\"")) {
-			value = value.substring(1, value.length() - 1);
-		}
-		final char ESC = '\\';
-		StringBuilder builder = new StringBuilder(value.length());
-		for (int i = 0; i < value.length(); i++) {
-			if (value.charAt(i) != ESC) {
-				builder.append(value.charAt(i));
-			} else if (++i < value.length()) {
-				char escVal = value.charAt(i);
-				if (escVal == 'c')
-					builder.append(',');
-				else if (escVal == 'r')
-					builder.append('\r');
-				else if (escVal == 'n')
-					builder.append('\n');
-				else if (escVal == 't')
-					builder.append('\t');
-				else
-					builder.append(escVal);
+	private static long utf8Length(String line) {
+		long length = line.length();
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c >= 0x80) {
+				// 2 bytes, 3 bytes, or 4 bytes for a surrogate pair (2 chars)
+				length += c < 0x800 || Character.isSurrogate(c) ? 1 : 2;
 			}
 		}
-		return builder.toString();
+		return length;
 	}
 
-	private static List<String> unpackValues(@NonNull String data) {
-		if (data.isEmpty()) {
-			return Collections.emptyList();
+	@Override
+	protected void readRows(IndexedVersion version, int[] rowIds, ObjIntConsumer<String> consumer) throws IOException {
+		BufferedReader reader = null;
+		try {
+			int lineNo = 0;
+			for (int rowId : rowIds) {
+				// Reading starts anew from the indexed line before the row, if it is ahead of the current line
+				int indexedLineNo = rowId / INDEX_STEP * INDEX_STEP;
+				if (reader == null || indexedLineNo > lineNo) {
+					if (reader != null) reader.close();
+					reader = new BufferedReader(new InputStreamReader(
+							version.file.newInputStream(version.lineOffsets[rowId / INDEX_STEP]), StandardCharsets.UTF_8));
+					lineNo = indexedLineNo;
+				}
+				for (; lineNo < rowId; lineNo++) {
+					if (reader.readLine() == null) throw createCorruptedTableError();
+				}
+				String line = reader.readLine();
+				if (line == null) throw createCorruptedTableError();
+				lineNo++;
+				consumer.accept(line, rowId);
+			}
+		} finally {
+			if (reader != null) reader.close();
 		}
-		return Stream.of(data.split(",", -1)).map(TableFile::unescape).collect(Collectors.toList());
-	}
-
-	private static String packValues(List<String> values) {
-		return values.stream().map(TableFile::escape).collect(Collectors.joining(","));
 	}
 
 }
@@ -0,0 +1,54 @@
+package com.pikozh.testtasks.customdatabasetask.services;
+
+/**
+ * Rate limiter which allows bursts up to the bucket capacity.
+ *
+ * @author a.pikozh
+ */
+final class TokenBucket {
+
+	private final double tokensPerNano;
+	private final double capacity;
+	private double tokens;
+	private long updated = System.nanoTime();
+
+	TokenBucket(double tokensPerSecond, int capacity) {
+		this.tokensPerNano = tokensPerSecond / 1e9;
+		this.capacity = Math.max(capacity, 1);
+		this.tokens = this.capacity;
+	}
+
+	/**
+	 * @return true if a token can be taken now, nothing is taken
+	 */
+	synchronized boolean hasToken() {
+		refill();
+		return tokens >= 1;
+	}
+
+	/**
+	 * @return false if there is no token now, nothing is taken then
+	 */
+	synchronized boolean tryAcquire() {
+		refill();
+		if (tokens < 1) {
+			return false;
+		}
+		tokens--;
+		return true;
+	}
+
+	/**
+	 * Returns the token taken by {@link #tryAcquire}, when the operation is rejected for another reason.
+	 */
+	synchronized void release() {
+		tokens = Math.min(capacity, tokens + 1);
+	}
+
+	private void refill() {
+		final long now = System.nanoTime();
+		tokens = Math.min(capacity, tokens + (now - updated) * tokensPerNano);
+		updated = now;
+	}
+
+}
@@ -0,0 +1,39 @@
+package com.pikozh.testtasks.customdatabasetask.services;
+
+import com.pikozh.testtasks.customdatabasetask.model.exceptions.NotFoundException;
+
+import java.util.List;
+
+/**
+ * Buffers writes to several rows and tables and applies them atomically on {@link #commit()}.
+ */
+public interface Transaction {
+	/**
+	 * Buffers insertion of a new row. ID of the row is assigned on commit.
+	 *
+	 * @param tableName identifies the table to insert the values into. If the table does not exist, it will be created.
+	 * @param values a list of values to populate the new row
+	 */
+	void insert(String tableName, List<String> values);
+
+	/**
+	 * Buffers replacement of the row values.
+	 *
+	 * @param tableName identifies the table containing the row to be updated
+	 * @param rowId the numerical ID identifying the row to be updated, including rows inserted by this transaction
+	 * @param values a list of values to replace the current row values with
+	 */
+	void update(String tableName, int rowId, List<String> values);
+
+	/**
+	 * Applies all buffered writes. Commit costs a single durable write to the transaction log regardless of the
+	 * number of rows, and readers see either all writes or none of them.
+	 *
+	 * <p>If table files cannot be written after the commit record (I/O error), the transaction is aborted in the
+	 * log and the error is thrown, but writes done to some of the tables before the error stay.
+	 *
+	 * @return row IDs of the buffered writes in the same order: IDs of inserted rows and IDs of updated rows
+	 * @throws NotFoundException if any of the updated rows does not exist, nothing is written in this case
+	 */
+	List<Integer> commit();
+}
@@ -0,0 +1,261 @@
+package com.pikozh.testtasks.customdatabasetask.services;
+
+import com.pikozh.testtasks.customdatabasetask.configs.DatabaseProperties;
+import com.pikozh.testtasks.customdatabasetask.model.exceptions.DatabaseException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Redo log of transactions ({@code _$txlog} in the database location).
+ *
+ * <p>Whole transaction is written as one record and flushed to the storage device once, then its changes are
+ * applied to the table files without flushing, and applied marker is appended. On startup, committed but not
+ * applied transactions are applied again: updates are idempotent, and inserts are skipped if the table already
+ * contains them (table row count is beyond the base row count of the record). Transaction which failed to apply
+ * gets abort marker instead, so it is not applied on startup over newer changes. If the applied marker is lost,
+ * tables which grew by the record inserts or more are known to be applied, and their updates are skipped too.
+ *
+ * <p>Log format, one line per item:
+ * <pre>
+ *   BEGIN id
+ *   TABLE name baseRowCount
+ *   UPDATE rowId packedRow
+ *   INSERT packedRow
+ *   COMMIT id
+ *   APPLIED id
+ *   ABORT id
+ * </pre>
+ * Record without COMMIT line was interrupted and is ignored.
+ *
+ * @author a.pikozh
+ */
+@Slf4j
+@Component
+class TransactionLog {
+
+	static final String LOG_FILE = "_$txlog";
+	private static final String BEGIN = "BEGIN";
+	private static final String TABLE = "TABLE";
+	private static final String UPDATE = "UPDATE";
+	private static final String INSERT = "INSERT";
+	private static final String COMMIT = "COMMIT";
+	private static final String APPLIED = "APPLIED";
+	private static final String ABORT = "ABORT";
+
+	private final Path logPath;
+	private final long checkpointLogSize;
+	// Commits hold read lock from writing the record till applied marker, so checkpoint never drops a record
+	// of a transaction in progress
+	private final ReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+	private FileChannel channel;
+	private long nextTransactionId = 1;
+
+	TransactionLog(DatabaseProperties properties) {
+		this.logPath = AbstractTableFile.resolvePath(properties, LOG_FILE).toAbsolutePath();
+		this.checkpointLogSize = properties.getTransactions().getCheckpointLogSize().toBytes();
+	}
+
+	/**
+	 * Opens the log for appending.
+	 *
+	 * @return committed but not applied transactions in commit order
+	 */
+	synchronized List<TransactionRecord> open() {
+		try {
+			List<TransactionRecord> pending = Files.exists(logPath) ? readPending() : new ArrayList<>();
+			Files.createDirectories(logPath.getParent());
+			channel = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.APPEND);
+			return pending;
+		} catch (IOException e) {
+			log.error(e.getMessage(), e);
+			throw createInternalError(e);
+		}
+	}
+
+	synchronized void close() {
+		try {
+			if (channel != null) {
+				channel.close();
+				channel = null;
+			}
+		} catch (IOException e) {
+			log.warn("Cannot close transaction log: {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * Durably writes the record, then applies it with the given function. If applying fails, the record is aborted.
+	 */
+	void commit(TransactionRecord record, Consumer<TransactionRecord> apply) {
+		try (LockWrapper lock = new LockWrapper(checkpointLock.readLock())) {
+			writeRecord(record);
+			try {
+				apply.accept(record);
+			} catch (RuntimeException | Error e) {
+				// Record left pending would be applied again on startup, over the changes made after it
+				abort(record, e);
+				throw e;
+			}
+			write(APPLIED + " " + record.id + "\n", false);
+		} catch (IOException e) {
+			log.error(e.getMessage(), e);
+			throw createInternalError(e);
+		}
+	}
+
+	private void abort(TransactionRecord record, Throwable cause) {
+		log.error(String.format("Transaction %d is not applied, aborting", record.id), cause);
+		try {
+			// Flushed, as the next commit may not come before a restart
+			write(ABORT + " " + record.id + "\n", true);
+		} catch (IOException e) {
+			cause.addSuppressed(e);
+		}
+	}
+
+	/**
+	 * Truncates the log if it is too big and no transaction is in progress.
+	 *
+	 * @param forceTables flushes all table files, so applied transactions are not needed anymore
+	 */
+	void checkpointIfNeeded(Runnable forceTables) {
+		if (size() < checkpointLogSize || !checkpointLock.writeLock().tryLock()) {
+			return;
+		}
+		try {
+			checkpoint(forceTables);
+		} finally {
+			checkpointLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Flushes tables and truncates the log. Must not be called concurrently with commits.
+	 */
+	void checkpoint(Runnable forceTables) {
+		forceTables.run();
+		synchronized (this) {
+			try {
+				// Log is replaced, not truncated in place, as snapshots may keep a hard link to it
+				final Path tmpLogPath = Path.of(logPath + "_$tmp");
+				Files.write(tmpLogPath, new byte[0]);
+				channel.close();
+				Files.move(tmpLogPath, logPath, StandardCopyOption.REPLACE_EXISTING);
+				channel = FileChannel.open(logPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+				log.info("Transaction log checkpoint done");
+			} catch (IOException e) {
+				log.error(e.getMessage(), e);
+				throw createInternalError(e);
+			}
+		}
+	}
+
+	private synchronized long size() {
+		try {
+			return channel.size();
+		} catch (IOException e) {
+			log.error(e.getMessage(), e);
+			throw createInternalError(e);
+		}
+	}
+
+	private synchronized void writeRecord(TransactionRecord record) throws IOException {
+		record.id = nextTransactionId++;
+		StringBuilder builder = new StringBuilder();
+		builder.append(BEGIN).append(' ').append(record.id).append('\n');
+		for (TransactionRecord.TableChanges changes : record.tables.values()) {
+			builder.append(TABLE).append(' ').append(changes.tableName).append(' ').append(changes.baseRowCount)
+					.append('\n');
+			changes.updates.forEach((rowId, values) -> builder.append(UPDATE).append(' ').append(rowId).append(' ')
+					.append(RowFormat.packValues(values)).append('\n'));
+			changes.inserts.forEach(values -> builder.append(INSERT).append(' ')
+					.append(RowFormat.packValues(values)).append('\n'));
+		}
+		builder.append(COMMIT).append(' ').append(record.id).append('\n');
+		write(builder.toString(), true);
+	}
+
+	private synchronized void write(String data, boolean force) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8));
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		if (force) {
+			channel.force(false);
+		}
+	}
+
+	private List<TransactionRecord> readPending() throws IOException {
+		Map<Long, TransactionRecord> pending = new LinkedHashMap<>();
+		TransactionRecord record = null;
+		TransactionRecord.TableChanges changes = null;
+		try (BufferedReader reader = Files.newBufferedReader(logPath)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] parts = line.split(" ", 3);
+				try {
+					switch (parts[0]) {
+						case BEGIN:
+							record = new TransactionRecord();
+							record.id = Long.parseLong(parts[1]);
+							nextTransactionId = Math.max(nextTransactionId, record.id + 1);
+							changes = null;
+							break;
+						case TABLE:
+							changes = new TransactionRecord.TableChanges(parts[1], Integer.parseInt(parts[2]));
+							record.tables.put(changes.tableName, changes);
+							break;
+						case UPDATE:
+							changes.updates.put(Integer.parseInt(parts[1]), RowFormat.unpackValues(parts[2]));
+							break;
+						case INSERT:
+							changes.inserts.add(RowFormat.unpackValues(line.substring(INSERT.length() + 1)));
+							break;
+						case COMMIT:
+							if (record != null && record.id == Long.parseLong(parts[1])) {
+								pending.put(record.id, record);
+							}
+							record = null;
+							break;
+						case APPLIED:
+						case ABORT:
+							pending.remove(Long.parseLong(parts[1]));
+							break;
+						default:
+							throw new IllegalArgumentException("Unknown log item");
+					}
+				} catch (RuntimeException e) {
+					// Interrupted record, it is not committed
+					log.warn("Skipping damaged transaction log line '{}': {}", line, e.toString());
+					record = null;
+					changes = null;
+				}
+			}
+		}
+		log.info("Transaction log contains {} not applied transactions", pending.size());
+		return new ArrayList<>(pending.values());
+	}
+
+	private static DatabaseException createInternalError(Throwable e) {
+		return new DatabaseException("Database internal error: " + e.getMessage(), e);
+	}
+
+}
@@ -0,0 +1,31 @@
+package com.pikozh.testtasks.customdatabasetask.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Changes of a committed transaction grouped by table. Inserted rows get IDs starting from the base row count.
+ *
+ * @author a.pikozh
+ */
+class TransactionRecord {
+
+	static class TableChanges {
+		final String tableName;
+		final int baseRowCount;
+		final Map<Integer, List<String>> updates = new TreeMap<>();
+		final List<List<String>> inserts = new ArrayList<>();
+
+		TableChanges(String tableName, int baseRowCount) {
+			this.tableName = tableName;
+			this.baseRowCount = baseRowCount;
+		}
+	}
+
+	long id;
+	// Sorted by table name, which is also the order of table locking
+	final Map<String, TableChanges> tables = new TreeMap<>();
+
+}
@@ -0,0 +1,35 @@
+package com.pikozh.testtasks.customdatabasetask.services;
+
+import com.pikozh.testtasks.customdatabasetask.model.WarmUpStats;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reports the instance out of service till tables found at startup are opened. It is a part of the readiness
+ * group, so requests are not routed to the instance while its tables are cold.
+ *
+ * @author a.pikozh
+ */
+@Component
+class WarmUpHealthIndicator implements HealthIndicator {
+
+	private final FileDatabase database;
+
+	WarmUpHealthIndicator(FileDatabase database) {
+		this.database = database;
+	}
+
+	@Override
+	public Health health() {
+		WarmUpStats stats = database.getWarmUpStats();
+		// Failed tables do not make the instance unready, they are opened again on the first request
+		return (stats.isDone() ? Health.up() : Health.outOfService())
+				.withDetail("tables", stats.getTables())
+				.withDetail("warmed", stats.getWarmed())
+				.withDetail("failed", stats.getFailed())
+				.withDetail("elapsedMillis", stats.getElapsedMillis())
+				.build();
+	}
+
+}
@@ -0,0 +1,439 @@
+package com.pikozh.testtasks.customdatabasetask;
+
+import com.pikozh.testtasks.customdatabasetask.configs.DatabaseProperties;
+import com.pikozh.testtasks.customdatabasetask.services.Database;
+import com.pikozh.testtasks.customdatabasetask.services.StatisticsService;
+import com.pikozh.testtasks.customdatabasetask.services.Transaction;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Load / soak test of the REST API against an embedded instance. Excluded from the default build, run it with
+ * {@code mvn test -P load-test}. Parameters are system properties (defaults in brackets):
+ * <pre>
+ *   load.threads          client threads [16]
+ *   load.warmupSeconds    warm-up time, not reported [5]
+ *   load.durationSeconds  measured time [30]
+ *   load.tables           number of tables [4]
+ *   load.rows             rows preloaded into each table [10000]
+ *   load.rowValues        values per row [5]
+ *   load.valueLength      characters per value [20]
+ *   load.mix              operation weights, operations are select, scan, insert, update and transaction
+ *                         [select=80,scan=5,insert=5,update=5,transaction=5]
+ *   load.transactionSize  updates per transaction, to compare with the same number of single updates [10]
+ *   load.scanLimit        rows per scan [100]
+ *   load.zipfExponent     skew of row and table choice, 0 is uniform, must be below 1 [0.99]
+ * </pre>
+ * Database properties can be overridden the same way, e.g. {@code -Ddatabase.compression.enabled=true} or
+ * {@code -Ddatabase.hotTables=.*} to compare storage formats. GC pauses of the measured time are reported, so
+ * off-heap hot tables can be compared with on-heap ones by running with {@code -Ddatabase.hotTables=.*} and then
+ * with {@code -Ddatabase.hotTables=.* -Ddatabase.hotTablesOffHeap=false}.
+ *
+ * <p>Report with latency percentiles and throughput of every operation is logged and written to
+ * {@code target/load-test-report.txt}.
+ *
+ * @author a.pikozh
+ */
+@Slf4j
+@Tag("load")
+@SpringBootTest(
+		webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+		classes = CustomDatabaseTaskSpringApplication.class)
+@ActiveProfiles("loadtest")
+public class DatabaseLoadTests {
+
+	private static final String TABLE_PREFIX = "load";
+	private static final long MAX_LATENCY = TimeUnit.MINUTES.toNanos(1);
+
+	@LocalServerPort
+	private int localserverPort;
+
+	@Autowired
+	private Database database;
+
+	@Autowired
+	private StatisticsService statisticsService;
+
+	@Autowired
+	private DatabaseProperties properties;
+
+	private final int threads = Integer.getInteger("load.threads", 16);
+	private final int warmupSeconds = Integer.getInteger("load.warmupSeconds", 5);
+	private final int durationSeconds = Integer.getInteger("load.durationSeconds", 30);
+	private final int tables = Integer.getInteger("load.tables", 4);
+	private final int rows = Integer.getInteger("load.rows", 10000);
+	private final int rowValues = Integer.getInteger("load.rowValues", 5);
+	private final int valueLength = Integer.getInteger("load.valueLength", 20);
+	private final String mix = System.getProperty("load.mix", "select=80,scan=5,insert=5,update=5,transaction=5");
+	private final int transactionSize = Integer.getInteger("load.transactionSize", 10);
+	private final int scanLimit = Integer.getInteger("load.scanLimit", 100);
+	private final double zipfExponent = Double.parseDouble(System.getProperty("load.zipfExponent", "0.99"));
+
+	private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+
+	/**
+	 * Counters of one operation type.
+	 */
+	private static class OperationStats {
+		final Histogram latency = new ConcurrentHistogram(MAX_LATENCY, 3);
+		final LongAdder notFound = new LongAdder();
+		final LongAdder rejected = new LongAdder();
+		final LongAdder errors = new LongAdder();
+
+		void reset() {
+			latency.reset();
+			notFound.reset();
+			rejected.reset();
+			errors.reset();
+		}
+	}
+
+	/**
+	 * Durations of garbage collections, taken from GC notifications. For concurrent collectors they include
+	 * concurrent phases, not only pauses.
+	 */
+	private static class GcPauses implements NotificationListener {
+		final Histogram pauses = new ConcurrentHistogram(MAX_LATENCY, 3);
+
+		void start() {
+			ManagementFactory.getGarbageCollectorMXBeans()
+					.forEach(gc -> ((NotificationEmitter) gc).addNotificationListener(this, null, null));
+		}
+
+		void stop() throws Exception {
+			for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+				((NotificationEmitter) gc).removeNotificationListener(this);
+			}
+		}
+
+		@Override
+		public void handleNotification(Notification notification, Object handback) {
+			if (notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+				GarbageCollectionNotificationInfo info =
+						GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+				pauses.recordValue(Math.min(TimeUnit.MILLISECONDS.toNanos(info.getGcInfo().getDuration()), MAX_LATENCY));
+			}
+		}
+	}
+
+	/**
+	 * Zipfian distribution over [0, n), 0 is the most frequent (Gray et al., "Quickly generating billion-record
+	 * synthetic databases"), as used by YCSB.
+	 */
+	static class Zipfian {
+		private final int n;
+		private final double theta;
+		private final double alpha;
+		private final double zetaN;
+		private final double eta;
+
+		Zipfian(int n, double theta) {
+			this.n = n;
+			this.theta = theta;
+			this.zetaN = zeta(n, theta);
+			this.alpha = 1.0 / (1.0 - theta);
+			this.eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta(2, theta) / zetaN);
+		}
+
+		int next(Random random) {
+			if (theta <= 0) {
+				return random.nextInt(n);
+			}
+			double u = random.nextDouble();
+			double uz = u * zetaN;
+			if (uz < 1.0) {
+				return 0;
+			}
+			if (uz < 1.0 + Math.pow(0.5, theta)) {
+				return Math.min(1, n - 1);
+			}
+			return Math.min((int) (n * Math.pow(eta * u - eta + 1, alpha)), n - 1);
+		}
+
+		private static double zeta(int n, double theta) {
+			double sum = 0;
+			for (int i = 1; i <= n; i++) {
+				sum += 1 / Math.pow(i, theta);
+			}
+			return sum;
+		}
+	}
+
+	@BeforeAll
+	public static void prepare(@Autowired DatabaseProperties properties) throws IOException {
+		// Tables are created from scratch, so results of runs are comparable. Service files ("_$...") are kept,
+		// as the database is already started
+		File dbDir = new File(properties.getLocation());
+		if (dbDir.exists()) {
+			try (Stream<Path> files = Files.list(dbDir.toPath())) {
+				for (Path file : files.filter(f -> f.getFileName().toString().startsWith(TABLE_PREFIX))
+						.collect(Collectors.toList())) {
+					Files.delete(file);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testLoad() throws Exception {
+		Map<String, Integer> weights = parseMix(mix);
+		Zipfian rowChooser = new Zipfian(rows, zipfExponent);
+		Zipfian tableChooser = new Zipfian(tables, zipfExponent);
+		// Skewed keys are scattered over the table, so hot rows are not only at its beginning
+		int[] rowPermutation = shuffledIds(rows);
+
+		preload();
+
+		Map<String, OperationStats> stats = new LinkedHashMap<>();
+		weights.keySet().forEach(operation -> stats.put(operation, new OperationStats()));
+
+		log.info("Warming up for {} s", warmupSeconds);
+		run(weights, stats, rowChooser, tableChooser, rowPermutation, warmupSeconds);
+		stats.values().forEach(OperationStats::reset);
+
+		log.info("Running {} threads for {} s, mix: {}", threads, durationSeconds, weights);
+		long gcCount = gcCount();
+		long gcTime = gcTime();
+		GcPauses gcPauses = new GcPauses();
+		gcPauses.start();
+		long start = System.nanoTime();
+		try {
+			run(weights, stats, rowChooser, tableChooser, rowPermutation, durationSeconds);
+		} finally {
+			gcPauses.stop();
+		}
+		double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+		String report = report(stats, elapsedSeconds, gcCount() - gcCount, gcTime() - gcTime, gcPauses.pauses);
+		log.info("Load test report:\n{}", report);
+		Path reportPath = Path.of("target", "load-test-report.txt");
+		Files.createDirectories(reportPath.getParent());
+		Files.writeString(reportPath, report);
+
+		long errors = stats.values().stream().mapToLong(s -> s.errors.sum()).sum();
+		Assertions.assertEquals(0, errors, "Operations must not fail");
+	}
+
+	private void preload() {
+		log.info("Preloading {} tables with {} rows", tables, rows);
+		for (int table = 0; table < tables; table++) {
+			for (int from = 0; from < rows; from += 1000) {
+				Transaction transaction = database.beginTransaction();
+				for (int rowId = from; rowId < Math.min(from + 1000, rows); rowId++) {
+					transaction.insert(TABLE_PREFIX + table, randomValues(ThreadLocalRandom.current()));
+				}
+				transaction.commit();
+			}
+		}
+	}
+
+	private void run(Map<String, Integer> weights, Map<String, OperationStats> stats,
+					 Zipfian rowChooser, Zipfian tableChooser, int[] rowPermutation, int seconds)
+			throws InterruptedException {
+		final String[] operations = weights.keySet().toArray(new String[0]);
+		final int[] cumulativeWeights = new int[operations.length];
+		for (int i = 0, sum = 0; i < operations.length; i++) {
+			sum += weights.get(operations[i]);
+			cumulativeWeights[i] = sum;
+		}
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		for (int i = 0; i < threads; i++) {
+			executor.execute(() -> {
+				Random random = ThreadLocalRandom.current();
+				while (System.nanoTime() < deadline) {
+					int choice = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+					int index = 0;
+					while (cumulativeWeights[index] <= choice) {
+						index++;
+					}
+					String table = TABLE_PREFIX + tableChooser.next(random);
+					execute(operations[index], stats.get(operations[index]),
+							createRequest(operations[index], table, random, rowChooser, rowPermutation));
+				}
+			});
+		}
+		executor.shutdown();
+		if (!executor.awaitTermination(seconds + 60L, TimeUnit.SECONDS)) {
+			executor.shutdownNow();
+			Assertions.fail("Load threads are not finished in time");
+		}
+	}
+
+	private HttpRequest createRequest(String operation, String table, Random random,
+									  Zipfian rowChooser, int[] rowPermutation) {
+		final String url = String.format("http://localhost:%d/database", localserverPort);
+		final int rowId = rowPermutation[rowChooser.next(random)];
+		switch (operation) {
+			case "select":
+				return HttpRequest.newBuilder(URI.create(url + "/" + table + "/" + rowId)).GET().build();
+			case "scan":
+				return HttpRequest.newBuilder(URI.create(String.format("%s/%s/scan?from=%d&limit=%d",
+						url, table, rowId, scanLimit))).GET().build();
+			case "insert":
+				return jsonRequest(url + "/" + table, "POST", toJson(randomValues(random)));
+			case "update":
+				return jsonRequest(url + "/" + table + "/" + rowId, "PUT", toJson(randomValues(random)));
+			case "transaction":
+				String operations = IntStream.range(0, transactionSize)
+						.mapToObj(i -> String.format("{\"table\":\"%s\",\"rowId\":%d,\"values\":%s}",
+								table, rowPermutation[rowChooser.next(random)], toJson(randomValues(random))))
+						.collect(Collectors.joining(",", "[", "]"));
+				return jsonRequest(url, "POST", operations);
+			default:
+				throw new IllegalArgumentException("Unknown operation: " + operation);
+		}
+	}
+
+	private void execute(String operation, OperationStats stats, HttpRequest request) {
+		long start = System.nanoTime();
+		try {
+			int status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+			long latency = System.nanoTime() - start;
+			if (status == 200) {
+				stats.latency.recordValue(Math.min(latency, MAX_LATENCY));
+			} else if (status == 404) {
+				stats.notFound.increment();
+			} else if (status == 429) {
+				stats.rejected.increment();
+			} else {
+				log.warn("{} failed with status {}", operation, status);
+				stats.errors.increment();
+			}
+		} catch (IOException e) {
+			log.warn("{} failed: {}", operation, e.toString());
+			stats.errors.increment();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private String report(Map<String, OperationStats> stats, double elapsedSeconds, long gcCount, long gcTime,
+						  Histogram gcPauses) {
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("threads=%d duration=%.1fs tables=%d rows=%d rowValues=%d valueLength=%d "
+						+ "zipfExponent=%.2f transactionSize=%d%n",
+				threads, elapsedSeconds, tables, rows, rowValues, valueLength, zipfExponent, transactionSize));
+		report.append(String.format("compression=%s hotTables=%s hotTablesOffHeap=%s maxHeap=%dMB%n",
+				properties.getCompression().isEnabled(), properties.getHotTables(), properties.isHotTablesOffHeap(),
+				Runtime.getRuntime().maxMemory() >> 20));
+		report.append(String.format("%-12s %10s %10s %9s %9s %9s %9s %9s %9s %8s %8s %8s%n",
+				"operation", "count", "ops/s", "mean ms", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms",
+				"404", "429", "errors"));
+		stats.forEach((operation, s) -> {
+			Histogram h = s.latency;
+			report.append(String.format("%-12s %10d %10.1f %9.3f %9.3f %9.3f %9.3f %9.3f %9.3f %8d %8d %8d%n",
+					operation, h.getTotalCount(), h.getTotalCount() / elapsedSeconds, h.getMean() / 1e6,
+					h.getValueAtPercentile(50) / 1e6, h.getValueAtPercentile(90) / 1e6,
+					h.getValueAtPercentile(99) / 1e6, h.getValueAtPercentile(99.9) / 1e6, h.getMaxValue() / 1e6,
+					s.notFound.sum(), s.rejected.sum(), s.errors.sum()));
+		});
+		report.append(String.format("GC: %d collections, %d ms, pause ms p50=%.1f p90=%.1f p99=%.1f max=%.1f%n",
+				gcCount, gcTime, gcPauses.getValueAtPercentile(50) / 1e6, gcPauses.getValueAtPercentile(90) / 1e6,
+				gcPauses.getValueAtPercentile(99) / 1e6, gcPauses.getMaxValue() / 1e6));
+		report.append("Read coalescing: ").append(statisticsService.getReadCoalescingStats()).append('\n');
+		report.append("Admission: ").append(statisticsService.getAdmissionStats()).append('\n');
+		report.append("Compression: ").append(statisticsService.getCompressionStats()).append('\n');
+		return report.toString();
+	}
+
+	private List<String> randomValues(Random random) {
+		List<String> values = new ArrayList<>(rowValues);
+		for (int i = 0; i < rowValues; i++) {
+			StringBuilder value = new StringBuilder(valueLength);
+			for (int j = 0; j < valueLength; j++) {
+				value.append((char) ('a' + random.nextInt(26)));
+			}
+			values.add(value.toString());
+		}
+		return values;
+	}
+
+	private static HttpRequest jsonRequest(String url, String method, String body) {
+		return HttpRequest.newBuilder(URI.create(url))
+				.header("Content-Type", "application/json")
+				.method(method, HttpRequest.BodyPublishers.ofString(body))
+				.build();
+	}
+
+	private static String toJson(List<String> values) {
+		// Generated values contain letters only, nothing to escape
+		return values.stream().collect(Collectors.joining("\",\"", "[\"", "\"]"));
+	}
+
+	private static Map<String, Integer> parseMix(String mix) {
+		Map<String, Integer> weights = new LinkedHashMap<>();
+		for (String item : mix.split(",")) {
+			String[] parts = item.trim().split("=");
+			int weight = Integer.parseInt(parts[1].trim());
+			if (weight > 0) {
+				weights.put(parts[0].trim(), weight);
+			}
+		}
+		Assertions.assertFalse(weights.isEmpty(), "Operation mix is empty");
+		return weights;
+	}
+
+	private static int[] shuffledIds(int n) {
+		int[] ids = IntStream.range(0, n).toArray();
+		Random random = new Random(n);
+		for (int i = n - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int id = ids[i];
+			ids[i] = ids[j];
+			ids[j] = id;
+		}
+		return ids;
+	}
+
+	private static long gcCount() {
+		return ManagementFactory.getGarbageCollectorMXBeans().stream()
+				.mapToLong(GarbageCollectorMXBean::getCollectionCount).sum();
+	}
+
+	private static long gcTime() {
+		return ManagementFactory.getGarbageCollectorMXBeans().stream()
+				.mapToLong(GarbageCollectorMXBean::getCollectionTime).sum();
+	}
+
+}
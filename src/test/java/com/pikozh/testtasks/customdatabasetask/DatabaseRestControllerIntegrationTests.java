@@ -1,6 +1,10 @@
 package com.pikozh.testtasks.customdatabasetask;
 
 import com.pikozh.testtasks.customdatabasetask.configs.DatabaseProperties;
+import com.pikozh.testtasks.customdatabasetask.model.AdmissionStats;
+import com.pikozh.testtasks.customdatabasetask.model.ReadCoalescingStats;
+import com.pikozh.testtasks.customdatabasetask.model.SnapshotInfo;
+import com.pikozh.testtasks.customdatabasetask.model.TransactionOperation;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
@@ -19,6 +23,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -221,5 +226,182 @@ public class DatabaseRestControllerIntegrationTests extends BaseIntegrationTest
 		}, "Select must return 404 for ID=20");
 	}
 
+	@Test
+	public void testReadView() throws Exception {
+		final String tableName = "readview";
+		final String tableUrl = String.format("http://localhost:%d/database/%s", localserverPort, tableName);
+
+		post(tableName, Arrays.asList("1", "2"));
+		post(tableName, Collections.singletonList("3"));
+
+		Long readView = restTemplate.postForObject(tableUrl + "/readviews", null, Long.class);
+		log.info("readView: {}", readView);
+
+		put(tableName, 0, Collections.singletonList("A"));
+		post(tableName, Collections.singletonList("4"));
+
+		Map<String, List<String>> result = restTemplate.getForObject(
+				tableUrl + "/scan?readView=" + readView, Map.class);
+		log.info("result: {}", result);
+		Assertions.assertEquals(2, result.size(), "Scan must not see rows inserted after read view");
+		Assertions.assertEquals(Arrays.asList("1", "2"), result.get("0"), "Scan must not see updates after read view");
+
+		result = restTemplate.getForObject(tableUrl + "/batch?ids=0,2", Map.class);
+		log.info("result: {}", result);
+		Assertions.assertEquals(Collections.singletonList("A"), result.get("0"), "Batch select is not same for ID=0");
+		Assertions.assertEquals(Collections.singletonList("4"), result.get("2"), "Batch select is not same for ID=2");
+
+		restTemplate.delete(tableUrl + "/readviews/" + readView);
+		Assertions.assertThrows(HttpClientErrorException.NotFound.class, () -> {
+			String error = restTemplate.getForObject(tableUrl + "/scan?readView=" + readView, String.class);
+			log.info("result: {}", error);
+		}, "Scan must return 404 for closed read view");
+	}
+
+	@Test
+	public void testSnapshotRestore() throws Exception {
+		final String tableName = "snapshot";
+		final String adminUrl = String.format("http://localhost:%d/admin/snapshots", localserverPort);
+
+		List<String> data = Arrays.asList("1", "2", "3");
+		Assertions.assertEquals(0, post(tableName, data), "ID is not same");
+
+		SnapshotInfo snapshot = restTemplate.postForObject(adminUrl, null, SnapshotInfo.class);
+		log.info("snapshot: {}", snapshot);
+		Assertions.assertNotNull(snapshot, "Snapshot is not created");
+		Assertions.assertTrue(snapshot.getTables().contains(tableName), "Snapshot does not contain table");
+
+		put(tableName, 0, Arrays.asList("A", "B"));
+		Assertions.assertEquals(1, post(tableName, data), "ID is not same");
+
+		restTemplate.postForObject(adminUrl + "/" + snapshot.getId() + "/restore", null, Void.class);
+
+		List<String> result = getUnsafe(tableName, 0, List.class);
+		log.info("result: {}", result);
+		Assertions.assertEquals(data, result, "Select result is not restored for ID=0");
+
+		Assertions.assertThrows(HttpClientErrorException.NotFound.class, () -> {
+			String error = get(tableName, 1, String.class);
+			log.info("result: {}", error);
+		}, "Select must return 404 for ID=1 inserted after snapshot");
+
+		restTemplate.delete(adminUrl + "/" + snapshot.getId());
+	}
+
+	@Test
+	public void testTransaction() throws Exception {
+		final String tableName = "transaction";
+		final String url = String.format("http://localhost:%d/database", localserverPort);
+
+		List<String> data = Arrays.asList("1", "2", "3");
+		Assertions.assertEquals(0, post(tableName, data), "ID is not same");
+
+		List<TransactionOperation> operations = Arrays.asList(
+				new TransactionOperation(tableName, null, Arrays.asList("A")),
+				new TransactionOperation(tableName, 0, Arrays.asList("B")),
+				new TransactionOperation(tableName, 1, Arrays.asList("C")));
+		List<Integer> ids = Arrays.asList(restTemplate.postForObject(url, operations, Integer[].class));
+		Assertions.assertEquals(Arrays.asList(1, 0, 1), ids, "IDs are not same");
+		Assertions.assertEquals(Arrays.asList("B"), getUnsafe(tableName, 0, List.class), "Row 0 is not updated");
+		Assertions.assertEquals(Arrays.asList("C"), getUnsafe(tableName, 1, List.class), "Row 1 is not inserted");
+
+		// Failed transaction must not apply any of its operations
+		List<TransactionOperation> failing = Arrays.asList(
+				new TransactionOperation(tableName, 0, Arrays.asList("D")),
+				new TransactionOperation(tableName, 5, Arrays.asList("E")));
+		Assertions.assertThrows(HttpClientErrorException.NotFound.class,
+				() -> restTemplate.postForObject(url, failing, Integer[].class),
+				"Transaction must return 404 for missing row");
+		Assertions.assertEquals(Arrays.asList("B"), getUnsafe(tableName, 0, List.class), "Row 0 is changed");
+	}
+
+	@Test
+	public void testHotTable() throws Exception {
+		final String tableName = "hottable";
+
+		List<List<String>> dataLists = new ArrayList<>();
+		for (int i = 1; i <= 200; i++) {
+			List<String> data = Arrays.asList(String.valueOf(i), "row,with\\escapes");
+			Assertions.assertEquals(i - 1, post(tableName, data), "ID is not same");
+			dataLists.add(data);
+		}
+
+		List<String> newData = Arrays.asList("A", "B", "C", "D", "E", "F");
+		put(tableName, 10, newData);
+		dataLists.set(10, newData);
+		put(tableName, 0, Collections.singletonList(""));
+		dataLists.set(0, Collections.singletonList(""));
+
+		for (int id = 0; id < dataLists.size(); id++) {
+			List<String> result = getUnsafe(tableName, id, List.class);
+			Assertions.assertEquals(dataLists.get(id), result, "Select result is not same for ID=" + id);
+		}
+
+		Assertions.assertThrows(HttpClientErrorException.NotFound.class, () -> {
+			String error = get(tableName, 200, String.class);
+			log.info("result: {}", error);
+		}, "Select must return 404 for ID=200");
+	}
+
+	@Test
+	public void testDelete() throws Exception {
+		final String tableName = "delete";
+		final String url = String.format("http://localhost:%d/database/%s", localserverPort, tableName);
+
+		for (int i = 0; i < 5; i++) {
+			Assertions.assertEquals(i, post(tableName, Collections.singletonList(String.valueOf(i))), "ID is not same");
+		}
+
+		restTemplate.delete(url + "/1");
+		restTemplate.delete(url + "/2");
+
+		Assertions.assertThrows(HttpClientErrorException.NotFound.class, () -> {
+			String error = get(tableName, 1, String.class);
+			log.info("result: {}", error);
+		}, "Select must return 404 for deleted ID=1");
+		Assertions.assertThrows(HttpClientErrorException.NotFound.class,
+				() -> restTemplate.delete(url + "/1"), "Delete must return 404 for deleted ID=1");
+		Assertions.assertThrows(HttpClientErrorException.NotFound.class,
+				() -> put(tableName, 2, Collections.singletonList("2")), "Update must return 404 for deleted ID=2");
+
+		Map<?, ?> result = restTemplate.getForObject(url + "/scan?from=1&limit=2", Map.class);
+		log.info("result: {}", result);
+		Assertions.assertEquals(Arrays.asList("3", "4"), new ArrayList<>(result.keySet()), "Scan must skip deleted rows");
+
+		Assertions.assertEquals(5, post(tableName, Collections.singletonList("5")), "Deleted ID must not be reused");
+	}
+
+	@Test
+	public void testConcurrentSelects() throws Exception {
+		final String tableName = "concurrentselects";
+		final String statsUrl = String.format("http://localhost:%d/admin/stats/reads", localserverPort);
+
+		Assertions.assertEquals(0, post(tableName, Arrays.asList("1", "2")), "ID is not same");
+		List<String> newData = Arrays.asList("A", "B");
+
+		List<Thread> threads = new ArrayList<>();
+		List<Object> results = Collections.synchronizedList(new ArrayList<>());
+		put(tableName, 0, newData);
+		for (int i = 0; i < 16; i++) {
+			Thread thread = new Thread(() -> results.add(getUnsafe(tableName, 0, List.class)));
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		Assertions.assertEquals(Collections.nCopies(16, newData), results, "Select must not return stale rows");
+
+		ReadCoalescingStats stats = restTemplate.getForObject(statsUrl, ReadCoalescingStats.class);
+		log.info("stats: {}", stats);
+		// Sharing of reads is checked by SingleFlightTests
+		Assertions.assertTrue(stats.getRequests() >= 16, "Selects must go through read coalescing");
+
+		AdmissionStats admissionStats = restTemplate.getForObject(
+				String.format("http://localhost:%d/admin/stats/admission", localserverPort), AdmissionStats.class);
+		log.info("admission stats: {}", admissionStats);
+		Assertions.assertTrue(admissionStats.getReads().getAdmitted() >= 16, "Selects must pass admission control");
+		Assertions.assertEquals(0, admissionStats.getReads().getQueueDepth(), "Read queue must be empty");
+	}
 
 }
@@ -0,0 +1,141 @@
+package com.pikozh.testtasks.customdatabasetask;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pikozh.testtasks.customdatabasetask.configs.DatabaseProperties;
+import com.pikozh.testtasks.customdatabasetask.model.WarmUpStats;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Warm-up starts with the application context, so the test runs in its own context with the database prepared
+ * before the context is started.
+ *
+ * @author a.pikozh
+ */
+@Slf4j
+@SpringBootTest(
+		webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+		classes = {CustomDatabaseTaskSpringApplication.class, BaseIntegrationTest.TestConfiguration.class,
+				WarmUpIntegrationTests.WarmUpConfiguration.class},
+		properties = {"database.warmup.enabled=true", "database.warmup.threads=1"})
+@ActiveProfiles("integrationtest")
+public class WarmUpIntegrationTests {
+
+	private static final Path LOCATION = Path.of("target", "warmup-test-database");
+	// Holds warm-up till the test has seen the instance out of service
+	private static final CountDownLatch WARM_UP_STARTED = new CountDownLatch(1);
+	private static final CountDownLatch WARM_UP_RELEASED = new CountDownLatch(1);
+
+	@LocalServerPort
+	int localserverPort;
+
+	@Autowired
+	private RestTemplate restTemplate;
+
+	/**
+	 * Database properties, which block warm-up threads on their first access to the database location.
+	 * Not picked up by the component scan of other tests.
+	 */
+	@TestConfiguration
+	public static class WarmUpConfiguration {
+		@Bean
+		@Primary
+		@ConfigurationProperties(prefix = "database")
+		public DatabaseProperties blockingWarmUpProperties() {
+			return new DatabaseProperties() {
+				@Override
+				public String getLocation() {
+					if (Thread.currentThread().getName().startsWith("database-warmup-")) {
+						WARM_UP_STARTED.countDown();
+						try {
+							WARM_UP_RELEASED.await();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}
+					return super.getLocation();
+				}
+			};
+		}
+	}
+
+	@DynamicPropertySource
+	static void prepareDatabase(DynamicPropertyRegistry registry) throws IOException {
+		// Fill test database with template
+		FileSystemUtils.deleteRecursively(LOCATION);
+		Files.createDirectories(LOCATION);
+		for (File tplFile : new ClassPathResource("test_db_template").getFile().listFiles()) {
+			Files.copy(tplFile.toPath(), LOCATION.resolve(tplFile.getName()));
+		}
+		registry.add("database.location", LOCATION::toString);
+		registry.add("database.snapshot.location", () -> LOCATION + "-snapshots");
+	}
+
+	@AfterAll
+	public static void release() {
+		WARM_UP_RELEASED.countDown();
+	}
+
+	@Test
+	public void testReadiness() throws Exception {
+		final String statsUrl = String.format("http://localhost:%d/admin/stats/warmup", localserverPort);
+		final int tables = new ClassPathResource("test_db_template").getFile().listFiles().length;
+
+		WARM_UP_STARTED.await();
+		WarmUpStats stats = restTemplate.getForObject(statsUrl, WarmUpStats.class);
+		log.info("stats: {}", stats);
+		Assertions.assertFalse(stats.isDone(), "Warm-up must be in progress");
+		Assertions.assertEquals(tables, stats.getTables(), "All tables must be found");
+		Assertions.assertEquals("OUT_OF_SERVICE", getReadiness(), "Application must not be ready during warm-up");
+
+		WARM_UP_RELEASED.countDown();
+		for (int i = 0; i < 100 && !stats.isDone(); i++) {
+			Thread.sleep(100);
+			stats = restTemplate.getForObject(statsUrl, WarmUpStats.class);
+		}
+		log.info("stats: {}", stats);
+		Assertions.assertTrue(stats.isDone(), "Warm-up must be done");
+		Assertions.assertEquals(tables, stats.getWarmed(), "All tables must be warmed up");
+		Assertions.assertEquals(0, stats.getFailed(), "Tables must not fail");
+		Assertions.assertEquals("UP", getReadiness(), "Application must be ready after warm-up");
+	}
+
+	private String getReadiness() throws IOException {
+		final String url = String.format("http://localhost:%d/actuator/health/readiness", localserverPort);
+		Map<?, ?> health;
+		try {
+			health = restTemplate.getForObject(url, Map.class);
+		} catch (HttpServerErrorException e) {
+			// Instance which is not ready responds with 503
+			Assertions.assertEquals(HttpStatus.SERVICE_UNAVAILABLE, e.getStatusCode(), "Status code is not same");
+			health = new ObjectMapper().readValue(e.getResponseBodyAsString(), Map.class);
+		}
+		log.info("health: {}", health);
+		return (String) health.get("status");
+	}
+
+}
@@ -0,0 +1,115 @@
+package com.pikozh.testtasks.customdatabasetask.services;
+
+import com.pikozh.testtasks.customdatabasetask.configs.DatabaseProperties;
+import com.pikozh.testtasks.customdatabasetask.model.exceptions.TooManyRequestsException;
+import lombok.NonNull;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * @author a.pikozh
+ */
+public class AdmissionControlDatabaseTests {
+
+	@TempDir
+	Path location;
+
+	private DatabaseProperties properties;
+
+	@BeforeEach
+	public void prepare() {
+		properties = new DatabaseProperties();
+		properties.setLocation(location.toString());
+		properties.getCompression().setEnabled(false);
+		// Tokens are not refilled during the test
+		properties.getAdmission().setTableRate(0.001);
+		properties.getAdmission().setTableBurst(1);
+	}
+
+	@Test
+	public void testTokenBucket() {
+		TokenBucket bucket = new TokenBucket(0.001, 2);
+		Assertions.assertTrue(bucket.tryAcquire(), "Burst must be allowed");
+		Assertions.assertTrue(bucket.hasToken(), "Token must be left");
+		Assertions.assertTrue(bucket.tryAcquire(), "Burst must be allowed");
+		Assertions.assertFalse(bucket.hasToken(), "Burst is used up");
+		Assertions.assertFalse(bucket.tryAcquire(), "Rate must be limited after the burst");
+
+		bucket.release();
+		Assertions.assertTrue(bucket.tryAcquire(), "Returned token must be taken again");
+
+		bucket = new TokenBucket(1000, 1);
+		Assertions.assertTrue(bucket.tryAcquire(), "Burst must be allowed");
+		final long deadline = System.nanoTime() + 1_000_000_000L;
+		while (!bucket.hasToken()) {
+			Assertions.assertTrue(System.nanoTime() < deadline, "Token must be refilled");
+		}
+		Assertions.assertTrue(bucket.tryAcquire(), "Refilled token must be taken");
+	}
+
+	@Test
+	public void testRejectedTransactionKeepsTokens() {
+		AdmissionControlDatabase database = new AdmissionControlDatabase(new FileDatabase(properties,
+				new SnapshotStorage(properties), new TransactionLog(properties), new MemoryAccountant(properties)),
+				properties);
+		Assertions.assertEquals(0, database.insert("limited", Collections.singletonList("1")), "ID is not same");
+
+		Transaction transaction = database.beginTransaction();
+		transaction.insert("limited", Collections.singletonList("2"));
+		transaction.insert("free", Collections.singletonList("2"));
+		Assertions.assertThrows(TooManyRequestsException.class, transaction::commit,
+				"Transaction on a limited table must be rejected");
+		Assertions.assertEquals(1, database.getAdmissionStats().getRateLimited(), "Rejection is not counted");
+
+		Assertions.assertEquals(0, database.insert("free", Collections.singletonList("3")),
+				"Rejected transaction must not take the token of other tables");
+	}
+
+	@Test
+	public void testQueueRejectionKeepsTokens() throws Exception {
+		properties.getAdmission().setMaxConcurrentWrites(1);
+		properties.getAdmission().setWriteQueueCapacity(0);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		AdmissionControlDatabase database = new AdmissionControlDatabase(new FileDatabase(properties,
+				new SnapshotStorage(properties), new TransactionLog(properties), new MemoryAccountant(properties)) {
+			@Override
+			public int insert(@NonNull String tableName, @NonNull List<String> values) {
+				if (tableName.equals("blocking")) {
+					started.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				return super.insert(tableName, values);
+			}
+		}, properties);
+
+		// Holds the only write slot
+		Thread writer = new Thread(() -> database.insert("blocking", Collections.singletonList("1")));
+		writer.start();
+		started.await();
+		try {
+			Assertions.assertThrows(TooManyRequestsException.class,
+					() -> database.insert("limited", Collections.singletonList("1")),
+					"Write must be rejected by the full queue");
+		} finally {
+			release.countDown();
+			writer.join();
+		}
+
+		Assertions.assertEquals(0, database.getAdmissionStats().getRateLimited(), "Rate must not be exceeded");
+		Assertions.assertEquals(0, database.insert("limited", Collections.singletonList("2")),
+				"Write rejected by the queue must return the token of its table");
+	}
+
+}
@@ -0,0 +1,160 @@
+package com.pikozh.testtasks.customdatabasetask.services;
+
+import com.pikozh.testtasks.customdatabasetask.configs.DatabaseProperties;
+import com.pikozh.testtasks.customdatabasetask.model.exceptions.TooManyRequestsException;
+import com.pikozh.testtasks.customdatabasetask.services.AdmissionQueue.OperationClass;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author a.pikozh
+ */
+public class AdmissionQueueTests {
+
+	private DatabaseProperties.Admission properties;
+	private AdmissionQueue queue;
+	private final List<Thread> threads = new ArrayList<>();
+	private final List<OperationClass> started = Collections.synchronizedList(new ArrayList<>());
+	private final CountDownLatch finish = new CountDownLatch(1);
+
+	@BeforeEach
+	public void prepare() {
+		properties = new DatabaseProperties.Admission();
+		properties.setMaxConcurrent(1);
+		properties.setReadQueueCapacity(1);
+		properties.setWriteQueueCapacity(1);
+		queue = new AdmissionQueue(properties);
+	}
+
+	@AfterEach
+	public void clear() throws InterruptedException {
+		finish.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+	}
+
+	@Test
+	public void testQueueFull() throws Exception {
+		queue.acquire(OperationClass.READ);
+		startOperation(OperationClass.READ);
+		awaitQueueDepth(OperationClass.READ, 1);
+
+		final long start = System.nanoTime();
+		Assertions.assertThrows(TooManyRequestsException.class, () -> queue.acquire(OperationClass.READ),
+				"Read must be rejected when the queue is full");
+		Assertions.assertTrue(System.nanoTime() - start < properties.getMaxWait().toNanos(),
+				"Read must be rejected without waiting");
+		Assertions.assertEquals(1, queue.getStats(OperationClass.READ).getRejected(), "Rejected read is not counted");
+
+		queue.release(OperationClass.READ);
+		awaitStarted(1);
+		Assertions.assertEquals(Collections.singletonList(OperationClass.READ), started, "Queued read must start");
+	}
+
+	@Test
+	public void testMaxWait() {
+		properties.setMaxWait(Duration.ofMillis(100));
+		queue = new AdmissionQueue(properties);
+		queue.acquire(OperationClass.WRITE);
+
+		final long start = System.nanoTime();
+		Assertions.assertThrows(TooManyRequestsException.class, () -> queue.acquire(OperationClass.WRITE),
+				"Write must be rejected when it is not started in time");
+		Assertions.assertTrue(System.nanoTime() - start >= properties.getMaxWait().toNanos(),
+				"Write must wait before being rejected");
+		Assertions.assertEquals(0, queue.getStats(OperationClass.WRITE).getQueueDepth(),
+				"Rejected write must leave the queue");
+		Assertions.assertEquals(1, queue.getStats(OperationClass.WRITE).getRejected(), "Rejected write is not counted");
+		queue.release(OperationClass.WRITE);
+	}
+
+	@Test
+	public void testReadsBeforeWrites() throws Exception {
+		queue.acquire(OperationClass.WRITE);
+		startOperation(OperationClass.WRITE);
+		awaitQueueDepth(OperationClass.WRITE, 1);
+		startOperation(OperationClass.READ);
+		awaitQueueDepth(OperationClass.READ, 1);
+
+		queue.release(OperationClass.WRITE);
+		awaitStarted(1);
+		Assertions.assertEquals(Collections.singletonList(OperationClass.READ), started,
+				"Queued read must start before the write queued earlier");
+
+		// Running read holds the only slot
+		finish.countDown();
+		awaitStarted(2);
+		Assertions.assertEquals(Arrays.asList(OperationClass.READ, OperationClass.WRITE), started,
+				"Queued write must start after the read");
+	}
+
+	@Test
+	public void testMaxConcurrentWrites() throws Exception {
+		properties.setMaxConcurrent(4);
+		properties.setMaxConcurrentWrites(2);
+		queue = new AdmissionQueue(properties);
+		queue.acquire(OperationClass.WRITE);
+		queue.acquire(OperationClass.WRITE);
+		startOperation(OperationClass.WRITE);
+		awaitQueueDepth(OperationClass.WRITE, 1);
+		Assertions.assertEquals(2, queue.getStats(OperationClass.WRITE).getRunning(), "Writes must be limited");
+
+		// Slots above the write limit are left to reads
+		queue.acquire(OperationClass.READ);
+		Assertions.assertEquals(1, queue.getStats(OperationClass.READ).getRunning(), "Read must start at once");
+
+		queue.release(OperationClass.WRITE);
+		awaitStarted(1);
+		Assertions.assertEquals(2, queue.getStats(OperationClass.WRITE).getRunning(),
+				"Queued write must take the free write slot");
+		queue.release(OperationClass.WRITE);
+		queue.release(OperationClass.READ);
+	}
+
+	/**
+	 * Starts an operation in another thread, it is finished at the end of the test.
+	 */
+	private void startOperation(OperationClass operationClass) {
+		Thread thread = new Thread(() -> {
+			queue.acquire(operationClass);
+			try {
+				started.add(operationClass);
+				finish.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				queue.release(operationClass);
+			}
+		});
+		threads.add(thread);
+		thread.start();
+	}
+
+	private void awaitQueueDepth(OperationClass operationClass, int queueDepth) throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (queue.getStats(operationClass).getQueueDepth() != queueDepth) {
+			Assertions.assertTrue(System.nanoTime() < deadline, "Operation is not queued");
+			Thread.sleep(1);
+		}
+	}
+
+	private void awaitStarted(int operations) throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (started.size() < operations) {
+			Assertions.assertTrue(System.nanoTime() < deadline, "Operation is not started");
+			Thread.sleep(1);
+		}
+	}
+
+}
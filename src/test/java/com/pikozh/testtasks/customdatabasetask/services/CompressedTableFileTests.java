@@ -0,0 +1,163 @@
+package com.pikozh.testtasks.customdatabasetask.services;
+
+import com.pikozh.testtasks.customdatabasetask.configs.DatabaseProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * @author a.pikozh
+ */
+public class CompressedTableFileTests {
+
+	private static final String TABLE_NAME = "compressed";
+	private static final int BLOCK_ROWS = 4;
+
+	@TempDir
+	Path location;
+
+	private DatabaseProperties properties;
+	private CompressedTableFile table;
+
+	@BeforeEach
+	public void prepare() {
+		properties = new DatabaseProperties();
+		properties.setLocation(location.toString());
+		properties.getCompression().setEnabled(true);
+		properties.getCompression().setBlockRows(BLOCK_ROWS);
+		// Compaction is checked in its own test only
+		properties.getCompression().setCompactionGarbageRatio(100);
+		table = new CompressedTableFile(TABLE_NAME, properties);
+	}
+
+	@AfterEach
+	public void close() {
+		table.close();
+	}
+
+	@Test
+	public void testInsertAcrossBlocks() {
+		Assertions.assertEquals(0, table.insertAll(rows(0, 3)), "ID is not same");
+		// Fills the tail, seals it and starts the next block in one insert
+		Assertions.assertEquals(3, table.insertAll(rows(3, 10)), "ID is not same");
+		Assertions.assertEquals(10, table.insert(row(10)), "ID is not same");
+
+		Assertions.assertEquals(2, table.getCurrent().blockCount, "Full blocks must be compressed");
+		Assertions.assertEquals(3, table.getCurrent().tail.size(), "Rest of rows must be in the tail");
+		assertRows(11);
+	}
+
+	@Test
+	public void testUpdateBlockAndTail() throws Exception {
+		table.insertAll(rows(0, 6));
+		final long sizeBefore = table.getCompressedSize();
+
+		Map<Integer, List<String>> updates = Map.of(1, row(101), 5, row(105));
+		table.updateAll(updates);
+
+		Assertions.assertEquals(row(101), table.select(1), "Row of the block is not updated");
+		Assertions.assertEquals(row(105), table.select(5), "Row of the tail is not updated");
+		Assertions.assertEquals(row(0), table.select(0), "Other row of the block is changed");
+		Assertions.assertEquals(row(4), table.select(4), "Other row of the tail is changed");
+		Assertions.assertTrue(Files.size(dataPath()) > sizeBefore, "Updated block must be appended");
+	}
+
+	@Test
+	public void testReopen() throws Exception {
+		table.insertAll(rows(0, 10));
+		table.updateAll(Map.of(2, row(102), 9, row(109)));
+		table.close();
+
+		table = new CompressedTableFile(TABLE_NAME, properties);
+		Assertions.assertEquals(10, table.getRowCount(), "Row count is not same after reopen");
+		Assertions.assertEquals(row(102), table.select(2), "Updated block is not read after reopen");
+		Assertions.assertEquals(row(109), table.select(9), "Updated tail is not read after reopen");
+		Assertions.assertEquals(10, table.insert(row(10)), "ID is not same");
+	}
+
+	@Test
+	public void testCompaction() throws Exception {
+		table.close();
+		properties.getCompression().setCompactionGarbageRatio(0.5);
+		table = new CompressedTableFile(TABLE_NAME, properties);
+		table.insertAll(rows(0, 8));
+
+		table.updateAll(Map.of(0, row(100)));
+		Assertions.assertTrue(Files.size(dataPath()) > table.getCompressedSize(), "Outdated version must be kept");
+		table.updateAll(Map.of(4, row(104)));
+
+		Assertions.assertEquals(table.getCompressedSize(), Files.size(dataPath()),
+				"Outdated versions must be removed by compaction");
+		Assertions.assertEquals(0, table.recompressCold(Integer.MAX_VALUE), "Compaction must recompress all blocks");
+		Assertions.assertEquals(row(100), table.select(0), "Row is changed by compaction");
+		Assertions.assertEquals(row(104), table.select(4), "Row is changed by compaction");
+		Assertions.assertEquals(row(7), table.select(7), "Row is changed by compaction");
+	}
+
+	@Test
+	public void testIncompleteRecordTruncated() throws Exception {
+		table.insertAll(rows(0, 9));
+		table.close();
+		final long size = Files.size(dataPath());
+		// Header of the next block with a part of its data, as if the append was interrupted
+		ByteBuffer record = ByteBuffer.allocate(4 * Integer.BYTES + 10);
+		record.putInt(2).putInt(BLOCK_ROWS).putInt(100).putInt(50);
+		Files.write(dataPath(), record.array(), StandardOpenOption.APPEND);
+
+		table = new CompressedTableFile(TABLE_NAME, properties);
+		Assertions.assertEquals(size, Files.size(dataPath()), "Incomplete record must be truncated");
+		Assertions.assertEquals(9, table.getRowCount(), "Row count is not same after truncation");
+		table.insertAll(rows(9, 12));
+		assertRows(12);
+	}
+
+	@Test
+	public void testRecompressCold() throws Exception {
+		table.insertAll(rows(0, 14));
+
+		Assertions.assertEquals(2, table.recompressCold(2), "Recompression must be limited");
+		Assertions.assertEquals(1, table.recompressCold(2), "Only not recompressed blocks must be recompressed");
+		Assertions.assertEquals(0, table.recompressCold(2), "Cold blocks must not be recompressed again");
+		assertRows(14);
+
+		table.close();
+		table = new CompressedTableFile(TABLE_NAME, properties);
+		Assertions.assertEquals(0, table.recompressCold(2), "Cold blocks must be recognized after reopen");
+		assertRows(14);
+	}
+
+	private void assertRows(int rowCount) {
+		List<Integer> rowIds = IntStream.range(0, rowCount).boxed().collect(Collectors.toList());
+		Map<Integer, List<String>> result = table.select(rowIds, null);
+		Assertions.assertEquals(rowIds, new ArrayList<>(result.keySet()), "Row IDs are not same");
+		rowIds.forEach(rowId -> Assertions.assertEquals(row(rowId), result.get(rowId), "Row is not same for ID=" + rowId));
+	}
+
+	private Path dataPath() {
+		return location.resolve(TABLE_NAME + CompressedTableFile.DATA_SUFFIX);
+	}
+
+	private static List<List<String>> rows(int from, int to) {
+		return IntStream.range(from, to).mapToObj(CompressedTableFileTests::row).collect(Collectors.toList());
+	}
+
+	private static List<String> row(int value) {
+		// Repeated values, so the rows are compressible like real table data
+		return Arrays.asList("row " + value, String.join(",", Collections.nCopies(20, "value " + value)));
+	}
+
+}
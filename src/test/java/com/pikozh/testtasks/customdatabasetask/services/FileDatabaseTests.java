@@ -0,0 +1,100 @@
+package com.pikozh.testtasks.customdatabasetask.services;
+
+import com.pikozh.testtasks.customdatabasetask.configs.DatabaseProperties;
+import com.pikozh.testtasks.customdatabasetask.model.SnapshotInfo;
+import com.pikozh.testtasks.customdatabasetask.model.exceptions.NotFoundException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author a.pikozh
+ */
+public class FileDatabaseTests {
+
+	@TempDir
+	Path location;
+
+	private DatabaseProperties properties;
+	private final CountDownLatch updating = new CountDownLatch(1);
+	private final CountDownLatch release = new CountDownLatch(1);
+	private FileDatabase database;
+
+	@BeforeEach
+	public void prepare() {
+		properties = new DatabaseProperties();
+		// Snapshots are stored next to the database
+		properties.setLocation(location.resolve("database").toString());
+		properties.getCompression().setEnabled(false);
+		properties.getWarmup().setEnabled(false);
+		properties.setReadViewTimeout(Duration.ofMillis(100));
+		// Table rewrite waits in the memory reservation till the test releases it
+		MemoryAccountant accountant = new MemoryAccountant(properties) {
+			@Override
+			boolean tryReserve(long bytes) {
+				updating.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return super.tryReserve(bytes);
+			}
+		};
+		database = new FileDatabase(properties, new SnapshotStorage(properties), new TransactionLog(properties),
+				accountant);
+		database.construct();
+	}
+
+	@AfterEach
+	public void close() {
+		release.countDown();
+		database.destroy();
+	}
+
+	@Test
+	public void testSnapshotDoesNotBlockReads() throws Exception {
+		database.insert("table", Collections.singletonList("a"));
+		CompletableFuture<Void> update = CompletableFuture.runAsync(
+				() -> database.update("table", 0, Collections.singletonList("b")));
+		updating.await();
+		CompletableFuture<SnapshotInfo> snapshot = new CompletableFuture<>();
+		Thread snapshotThread = new Thread(() -> snapshot.complete(database.createSnapshot()));
+		snapshotThread.start();
+		while (snapshotThread.getState() != Thread.State.WAITING) {
+			Thread.sleep(1);
+		}
+
+		// Snapshot waits for the rewrite in progress, reads must not wait for the snapshot
+		CompletableFuture<Object> select = CompletableFuture.supplyAsync(() -> database.select("table", 0));
+		Assertions.assertEquals(Collections.singletonList("a"), select.get(5, TimeUnit.SECONDS),
+				"Select must not wait for the snapshot");
+		Assertions.assertFalse(snapshot.isDone(), "Snapshot must wait for the update in progress");
+
+		release.countDown();
+		update.get(5, TimeUnit.SECONDS);
+		Assertions.assertEquals(Collections.singletonList("table"), snapshot.get(5, TimeUnit.SECONDS).getTables(),
+				"Snapshot must contain the table");
+	}
+
+	@Test
+	public void testAbandonedReadViewExpires() throws Exception {
+		database.insert("table", Collections.singletonList("a"));
+		long readView = database.openReadView("table");
+
+		// No views are used anymore, so only the maintenance can expire it
+		Thread.sleep(properties.getReadViewTimeout().toMillis() * 5);
+		Assertions.assertThrows(NotFoundException.class, () -> database.closeReadView("table", readView),
+				"Abandoned read view must be expired");
+	}
+
+}
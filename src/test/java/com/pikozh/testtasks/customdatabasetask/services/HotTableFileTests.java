@@ -0,0 +1,117 @@
+package com.pikozh.testtasks.customdatabasetask.services;
+
+import com.pikozh.testtasks.customdatabasetask.configs.DatabaseProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * @author a.pikozh
+ */
+public class HotTableFileTests {
+
+	private static final String TABLE_NAME = "hot";
+
+	@TempDir
+	Path location;
+
+	private DatabaseProperties properties;
+	private HotTableFile table;
+
+	@BeforeEach
+	public void prepare() {
+		properties = new DatabaseProperties();
+		properties.setLocation(location.toString());
+		table = new HotTableFile(TABLE_NAME, properties);
+	}
+
+	@AfterEach
+	public void close() {
+		table.close();
+	}
+
+	@Test
+	public void testUpdateInPlace() throws Exception {
+		table.insertAll(rows(0, 10));
+		final ByteBuffer data = table.getCurrent().data;
+		final long readView = table.openReadView();
+
+		table.updateAll(Map.of(3, row(103), 7, row(107)));
+		table.update(3, row(203));
+
+		Assertions.assertSame(data, table.getCurrent().data, "Update must not allocate a new buffer");
+		Assertions.assertEquals(row(203), table.select(3), "Row is not updated");
+		Assertions.assertEquals(row(107), table.select(7), "Row is not updated");
+		Assertions.assertEquals(row(6), table.select(6), "Other row is changed");
+		Assertions.assertEquals(row(3), table.select(Collections.singletonList(3), readView).get(3),
+				"Read view must see the row before update");
+		Assertions.assertEquals(row(7), table.select(Collections.singletonList(7), readView).get(7),
+				"Read view must see the row before update");
+		table.closeReadView(readView);
+	}
+
+	@Test
+	public void testCompaction() throws Exception {
+		table.insertAll(rows(0, 100));
+		final ByteBuffer data = table.getCurrent().data;
+		final long readView = table.openReadView();
+
+		// Garbage of the updates fills the buffer, so live rows are copied to a new one
+		int updates = 0;
+		for (; table.getCurrent().data == data; updates++) {
+			table.update(updates % 100, Arrays.asList(String.valueOf(updates), "updated value " + updates));
+		}
+		final int lastUpdated = updates - 1;
+		table.insertAll(rows(100, 110));
+
+		Assertions.assertTrue(table.getCurrent().data.capacity() < 2 * data.capacity(),
+				"New buffer must not hold garbage");
+		Assertions.assertTrue(updates > 100, "All rows must be updated before compaction");
+		Assertions.assertEquals(Arrays.asList(String.valueOf(lastUpdated), "updated value " + lastUpdated),
+				table.select(lastUpdated % 100), "Last update is lost");
+		Assertions.assertEquals(row(0), table.select(Collections.singletonList(0), readView).get(0),
+				"Read view must see the row before update");
+		Assertions.assertEquals(row(109), table.select(109), "Inserted row is not same");
+		table.closeReadView(readView);
+
+		assertReopenedSame();
+	}
+
+	@Test
+	public void testReopen() throws Exception {
+		table.insertAll(rows(0, 20));
+		table.updateAll(Map.of(0, row(100), 19, row(119)));
+		table.insert(row(20));
+		table.update(10, row(110));
+
+		assertReopenedSame();
+	}
+
+	private void assertReopenedSame() throws Exception {
+		final Map<Integer, List<String>> rows = table.scan(0, Integer.MAX_VALUE, null);
+		table.close();
+		table = new HotTableFile(TABLE_NAME, properties);
+
+		Assertions.assertEquals(rows, table.scan(0, Integer.MAX_VALUE, null), "Rows of the file are not same");
+	}
+
+	private static List<List<String>> rows(int from, int to) {
+		return IntStream.range(from, to).mapToObj(HotTableFileTests::row).collect(Collectors.toList());
+	}
+
+	private static List<String> row(int i) {
+		return Arrays.asList(String.valueOf(i), "value " + i);
+	}
+
+}
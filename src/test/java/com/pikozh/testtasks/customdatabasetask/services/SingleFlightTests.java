@@ -0,0 +1,122 @@
+package com.pikozh.testtasks.customdatabasetask.services;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * @author a.pikozh
+ */
+public class SingleFlightTests {
+
+	private static final int CALLERS = 8;
+
+	private final SingleFlight<List<Object>, String> flights = new SingleFlight<>();
+	private final CountDownLatch loading = new CountDownLatch(1);
+	private final CountDownLatch release = new CountDownLatch(1);
+	private final AtomicInteger loads = new AtomicInteger();
+
+	@Test
+	public void testConcurrentCallsShareLoad() throws Exception {
+		List<Object> results = Collections.synchronizedList(new ArrayList<>());
+		startCallers(key(1), blockingLoader(() -> "value"), results);
+
+		Assertions.assertEquals(Collections.nCopies(CALLERS, "value"), results, "All callers must get the value");
+		Assertions.assertEquals(1, loads.get(), "Value must be loaded once");
+		Assertions.assertEquals(CALLERS, flights.getRequests(), "All calls must be counted");
+		Assertions.assertEquals(1, flights.getLoads(), "Load must be counted once");
+	}
+
+	@Test
+	public void testErrorReachesAllCallers() throws Exception {
+		IllegalStateException error = new IllegalStateException("Read failed");
+		List<Object> results = Collections.synchronizedList(new ArrayList<>());
+		startCallers(key(1), blockingLoader(() -> {
+			throw error;
+		}), results);
+
+		Assertions.assertEquals(Collections.nCopies(CALLERS, error), results, "All callers must get the error");
+		Assertions.assertEquals(1, loads.get(), "Value must be loaded once");
+
+		// Failed flight is not kept
+		Assertions.assertEquals("next", flights.execute(key(1), () -> "next"), "Next call must load again");
+	}
+
+	@Test
+	public void testNewSequenceLoadsAgain() throws Exception {
+		List<Object> results = Collections.synchronizedList(new ArrayList<>());
+		Thread first = startCaller(key(1), blockingLoader(() -> "old"), results);
+		loading.await();
+
+		// Row was modified while the first read is in progress, so the select must not wait for it
+		Assertions.assertEquals("new", flights.execute(key(2), () -> "new"), "Call with new sequence must load");
+		Assertions.assertEquals(2, flights.getLoads(), "Each sequence must be loaded");
+
+		release.countDown();
+		first.join();
+		Assertions.assertEquals(Collections.singletonList("old"), results, "First caller must get its value");
+	}
+
+	/**
+	 * Starts a caller, which blocks in the loader, then the other callers, and waits till all of them are done.
+	 */
+	private void startCallers(List<Object> key, Supplier<String> loader, List<Object> results)
+			throws InterruptedException {
+		List<Thread> callers = new ArrayList<>();
+		callers.add(startCaller(key, loader, results));
+		loading.await();
+		for (int i = 1; i < CALLERS; i++) {
+			callers.add(startCaller(key, () -> {
+				throw new AssertionError("Value must be loaded by the first caller");
+			}, results));
+		}
+		// Callers are waiting for the first one
+		for (Thread caller : callers.subList(1, callers.size())) {
+			while (caller.getState() != Thread.State.WAITING) {
+				Thread.sleep(1);
+			}
+		}
+		release.countDown();
+		for (Thread caller : callers) {
+			caller.join();
+		}
+	}
+
+	private Thread startCaller(List<Object> key, Supplier<String> loader, List<Object> results) {
+		Thread thread = new Thread(() -> {
+			try {
+				results.add(flights.execute(key, loader));
+			} catch (RuntimeException e) {
+				results.add(e);
+			}
+		});
+		thread.start();
+		return thread;
+	}
+
+	private Supplier<String> blockingLoader(Supplier<String> loader) {
+		return () -> {
+			loads.incrementAndGet();
+			loading.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				throw new IllegalStateException(e);
+			}
+			return loader.get();
+		};
+	}
+
+	private static List<Object> key(long sequence) {
+		// Like the select key: table, row ID and version sequence
+		return Arrays.asList("table", 0, sequence);
+	}
+
+}
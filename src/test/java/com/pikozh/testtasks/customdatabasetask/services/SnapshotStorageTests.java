@@ -0,0 +1,87 @@
+package com.pikozh.testtasks.customdatabasetask.services;
+
+import com.pikozh.testtasks.customdatabasetask.configs.DatabaseProperties;
+import com.pikozh.testtasks.customdatabasetask.model.SnapshotInfo;
+import com.pikozh.testtasks.customdatabasetask.model.exceptions.DatabaseException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * @author a.pikozh
+ */
+public class SnapshotStorageTests {
+
+	@TempDir
+	Path location;
+
+	private Path databasePath;
+	private SnapshotStorage storage;
+
+	@BeforeEach
+	public void prepare() throws IOException {
+		databasePath = location.resolve("database");
+		Files.createDirectories(databasePath);
+		DatabaseProperties properties = new DatabaseProperties();
+		properties.setLocation(databasePath.toString());
+		storage = new SnapshotStorage(properties);
+	}
+
+	@Test
+	public void testRestore() throws IOException {
+		Files.write(databasePath.resolve("a"), Collections.singletonList("a"));
+		Files.write(databasePath.resolve("b"), Collections.singletonList("b"));
+		SnapshotInfo snapshot = storage.create();
+
+		// Database files are only appended or replaced, as the snapshot links them
+		Files.write(databasePath.resolve("a"), Collections.singletonList("appended"), StandardOpenOption.APPEND);
+		Files.delete(databasePath.resolve("b"));
+		Files.write(databasePath.resolve("c"), Collections.singletonList("c"));
+		storage.restore(snapshot.getId());
+
+		Assertions.assertEquals(Arrays.asList("a", "b"), listFiles(), "Database files are not same");
+		Assertions.assertEquals(Collections.singletonList("a"), Files.readAllLines(databasePath.resolve("a")),
+				"Rows appended after snapshot must be cut off");
+		Assertions.assertEquals(Collections.singletonList("b"), Files.readAllLines(databasePath.resolve("b")),
+				"Deleted file must be restored");
+	}
+
+	@Test
+	public void testFailedRestoreKeepsDatabase() throws IOException {
+		Files.write(databasePath.resolve("a"), Collections.singletonList("a"));
+		Files.write(databasePath.resolve("b"), Collections.singletonList("b"));
+		SnapshotInfo snapshot = storage.create();
+
+		Files.write(databasePath.resolve("a_$tmp"), Collections.singletonList("new a"));
+		Files.move(databasePath.resolve("a_$tmp"), databasePath.resolve("a"), StandardCopyOption.REPLACE_EXISTING);
+		// Snapshot file which cannot be read, restore fails after the first file is staged
+		Path snapshotFile = location.resolve("database-snapshots").resolve(snapshot.getId()).resolve("b");
+		Files.delete(snapshotFile);
+		Files.createDirectory(snapshotFile);
+
+		Assertions.assertThrows(DatabaseException.class, () -> storage.restore(snapshot.getId()),
+				"Restore must fail");
+		Assertions.assertEquals(Arrays.asList("a", "b"), listFiles(), "Database files must be kept");
+		Assertions.assertEquals(Collections.singletonList("new a"), Files.readAllLines(databasePath.resolve("a")),
+				"Database file must not be replaced");
+	}
+
+	private List<String> listFiles() throws IOException {
+		try (Stream<Path> files = Files.list(databasePath)) {
+			return files.map(file -> file.getFileName().toString()).sorted().collect(Collectors.toList());
+		}
+	}
+
+}
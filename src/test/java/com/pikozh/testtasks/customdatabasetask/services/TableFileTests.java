@@ -0,0 +1,256 @@
+package com.pikozh.testtasks.customdatabasetask.services;
+
+import com.pikozh.testtasks.customdatabasetask.configs.DatabaseProperties;
+import com.pikozh.testtasks.customdatabasetask.model.exceptions.NotFoundException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * @author a.pikozh
+ */
+public class TableFileTests {
+
+	@TempDir
+	Path location;
+
+	private DatabaseProperties properties;
+	private final List<TableFile> tables = new ArrayList<>();
+
+	@BeforeEach
+	public void prepare() {
+		properties = new DatabaseProperties();
+		properties.setLocation(location.toString());
+	}
+
+	@AfterEach
+	public void close() {
+		tables.forEach(TableFile::close);
+	}
+
+	@Test
+	public void testHeldVersions() {
+		TableFile first = open("first");
+		TableFile second = open("second");
+		first.insert(Collections.singletonList("a"));
+		second.insert(Collections.singletonList("b"));
+
+		try (LockWrapper firstLock = first.acquireWriteLock(); LockWrapper secondLock = second.acquireWriteLock()) {
+			first.holdVersions();
+			second.holdVersions();
+			// Rewrite and append, as a transaction with updates and inserts does
+			first.updateAll(Map.of(0, Collections.singletonList("A")));
+			first.insertAll(Collections.singletonList(Collections.singletonList("c")));
+			second.insertAll(Collections.singletonList(Collections.singletonList("d")));
+
+			Assertions.assertEquals(Collections.singletonList("a"), first.select(0), "Held update must not be visible");
+			Assertions.assertEquals(1, first.scan(0, 10, null).size(), "Held insert must not be visible");
+			Assertions.assertEquals(1, second.scan(0, 10, null).size(), "Held insert must not be visible");
+			Assertions.assertEquals(2, first.getRowCount(), "Writers must see held versions");
+
+			AbstractTableFile.publishHeld(Arrays.asList(first, second));
+		}
+
+		Assertions.assertEquals(Collections.singletonList("A"), first.select(0), "Update must be visible");
+		Assertions.assertEquals(Collections.singletonList("c"), first.select(1), "Insert must be visible");
+		Assertions.assertEquals(Collections.singletonList("d"), second.select(1), "Insert must be visible");
+		// Versions are not held anymore
+		second.update(0, Collections.singletonList("B"));
+		Assertions.assertEquals(Collections.singletonList("B"), second.select(0), "Update must be visible");
+	}
+
+	@Test
+	public void testCoalescedUpdates() throws Exception {
+		RecordingMemoryAccountant accountant = new RecordingMemoryAccountant(properties);
+		TableFile table = open("coalesced", accountant);
+		table.insertAll(rows(10));
+		table.delete(9);
+		long sequence = table.getSequence();
+
+		// Row IDs 10 and 9 do not exist, each of their callers must get its own error
+		Map<Integer, Throwable> errors = updateConcurrently(table, 0, 1, 2, 3, 4, 10, 9);
+
+		Assertions.assertEquals(sequence + 1, table.getSequence(), "Updates must be applied with one rewrite");
+		Assertions.assertEquals(Arrays.asList(9, 10), errors.keySet().stream().sorted().collect(Collectors.toList()),
+				"Only updates of missing rows must fail");
+		errors.forEach((rowId, error) -> {
+			Assertions.assertTrue(error instanceof NotFoundException, "Missing row must not be found");
+			Assertions.assertTrue(error.getMessage().contains("ID=" + rowId), "Error must be about the own row");
+		});
+		for (int rowId = 0; rowId < 5; rowId++) {
+			Assertions.assertEquals(Collections.singletonList("updated " + rowId), table.select(rowId),
+					"Row is not updated for ID=" + rowId);
+		}
+		Assertions.assertEquals(Collections.singletonList("row 5"), table.select(5), "Other row is changed");
+
+		// Rewrite fails for all coalesced updates, none of them may succeed
+		accountant.failure = new OutOfMemoryError("Java heap space");
+		sequence = table.getSequence();
+		errors = updateConcurrently(table, 5, 6, 7);
+
+		Assertions.assertEquals(sequence, table.getSequence(), "Failed rewrite must not be published");
+		Assertions.assertEquals(Arrays.asList(5, 6, 7), errors.keySet().stream().sorted().collect(Collectors.toList()),
+				"All updates must fail");
+		Assertions.assertEquals(1, errors.values().stream().filter(error -> error == accountant.failure).count(),
+				"Error must be rethrown to the caller which applied the updates");
+		errors.values().stream().filter(error -> error != accountant.failure).forEach(error ->
+				Assertions.assertSame(accountant.failure, error.getCause(), "Other callers must get the cause"));
+		for (int rowId = 5; rowId < 8; rowId++) {
+			Assertions.assertEquals(Collections.singletonList("row " + rowId), table.select(rowId),
+					"Row is changed for ID=" + rowId);
+		}
+	}
+
+	/**
+	 * Updates the rows from concurrent threads, which queue their updates while the table is locked.
+	 *
+	 * @return errors by row ID
+	 */
+	private static Map<Integer, Throwable> updateConcurrently(TableFile table, int... rowIds) throws Exception {
+		Map<Integer, Throwable> errors = new ConcurrentHashMap<>();
+		List<Thread> threads = new ArrayList<>();
+		try (LockWrapper lock = table.acquireWriteLock()) {
+			for (int rowId : rowIds) {
+				Thread thread = new Thread(() -> {
+					try {
+						table.update(rowId, Collections.singletonList("updated " + rowId));
+					} catch (RuntimeException | Error e) {
+						errors.put(rowId, e);
+					}
+				});
+				threads.add(thread);
+				thread.start();
+			}
+			// Updates are queued before waiting for the lock
+			for (Thread thread : threads) {
+				while (thread.getState() != Thread.State.WAITING) {
+					Thread.sleep(1);
+				}
+			}
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		return errors;
+	}
+
+	@Test
+	public void testMemoryBudget() {
+		properties.setMemoryBudget(DataSize.ofKilobytes(4));
+		RecordingMemoryAccountant accountant = new RecordingMemoryAccountant(properties);
+		TableFile small = open("small", accountant);
+		TableFile big = open("big", accountant);
+		small.insertAll(rows(10));
+		big.insertAll(rows(1000));
+
+		small.update(5, Collections.singletonList("updated"));
+		Assertions.assertEquals(1, accountant.granted.get(), "Small table must be updated in memory");
+		big.update(500, Collections.singletonList("updated"));
+		Assertions.assertEquals(1, accountant.denied.get(), "Big table must be updated with tmp file");
+
+		Assertions.assertEquals(0, accountant.getReserved(), "Reserved memory must be released");
+		Assertions.assertEquals(Collections.singletonList("updated"), small.select(5), "Row is not updated");
+		Assertions.assertEquals(Collections.singletonList("updated"), big.select(500), "Row is not updated");
+		Assertions.assertEquals(Collections.singletonList("row 999"), big.select(999), "Other row is changed");
+		Assertions.assertEquals(1000, big.getRowCount(), "Row count is changed");
+	}
+
+	@Test
+	public void testPurgeDeleted() throws Exception {
+		TableFile table = open("purged");
+		table.insertAll(rows(10));
+		table.delete(2);
+		table.delete(7);
+
+		Assertions.assertEquals(0, table.purgeDeleted(3), "Rows must not be erased below the minimum");
+		Assertions.assertEquals(2, table.purgeDeleted(1), "Deleted rows must be erased");
+		Assertions.assertEquals(0, table.purgeDeleted(1), "Erased rows must not be erased again");
+
+		final String contents = Files.readString(AbstractTableFile.resolvePath(properties, "purged"));
+		Assertions.assertFalse(contents.contains("row 2"), "Contents of the deleted row must be erased");
+		Assertions.assertFalse(contents.contains("row 7"), "Contents of the deleted row must be erased");
+		Assertions.assertThrows(NotFoundException.class, () -> table.select(2), "Erased row must not be found");
+		Assertions.assertThrows(NotFoundException.class, () -> table.select(7), "Erased row must not be found");
+		Assertions.assertEquals(Collections.singletonList("row 8"), table.select(8), "Other row is changed");
+		Assertions.assertEquals(8, table.scan(0, 10, null).size(), "Erased rows must be skipped by scan");
+		Assertions.assertEquals(10, table.getRowCount(), "Row count is changed");
+	}
+
+	@Test
+	public void testReopenDeleted() throws Exception {
+		TableFile table = open("deleted");
+		table.insertAll(rows(10));
+		table.delete(1);
+		table.purgeDeleted(1);
+		table.delete(4);
+		closeTable(table);
+
+		TableFile reopened = open("deleted");
+		Assertions.assertThrows(NotFoundException.class, () -> reopened.select(1), "Erased row must not be found");
+		Assertions.assertThrows(NotFoundException.class, () -> reopened.select(4), "Deleted row must not be found");
+		Assertions.assertEquals(8, reopened.scan(0, 10, null).size(), "Deleted rows must be skipped by scan");
+		// Row erased before the reopening is not erased again
+		Assertions.assertEquals(1, reopened.purgeDeleted(1), "Only the row deleted after purge must be erased");
+		closeTable(reopened);
+
+		TableFile purged = open("deleted");
+		Assertions.assertEquals(0, purged.purgeDeleted(1), "Erased rows must not be erased again");
+		Assertions.assertThrows(NotFoundException.class, () -> purged.select(4), "Erased row must not be found");
+	}
+
+	private static class RecordingMemoryAccountant extends MemoryAccountant {
+		final AtomicInteger granted = new AtomicInteger();
+		final AtomicInteger denied = new AtomicInteger();
+		volatile Error failure;
+
+		RecordingMemoryAccountant(DatabaseProperties properties) {
+			super(properties);
+		}
+
+		@Override
+		boolean tryReserve(long bytes) {
+			if (failure != null) {
+				throw failure;
+			}
+			boolean reserved = super.tryReserve(bytes);
+			(reserved ? granted : denied).incrementAndGet();
+			return reserved;
+		}
+	}
+
+	private static List<List<String>> rows(int count) {
+		return IntStream.range(0, count).mapToObj(i -> Collections.singletonList("row " + i))
+				.collect(Collectors.toList());
+	}
+
+	private TableFile open(String tableName) {
+		return open(tableName, new MemoryAccountant(properties));
+	}
+
+	private void closeTable(TableFile table) {
+		table.close();
+		tables.remove(table);
+	}
+
+	private TableFile open(String tableName, MemoryAccountant accountant) {
+		TableFile table = new TableFile(tableName, properties, accountant);
+		tables.add(table);
+		return table;
+	}
+
+}
@@ -0,0 +1,121 @@
+package com.pikozh.testtasks.customdatabasetask.services;
+
+import com.pikozh.testtasks.customdatabasetask.configs.DatabaseProperties;
+import com.pikozh.testtasks.customdatabasetask.model.exceptions.DatabaseException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * @author a.pikozh
+ */
+public class TransactionLogTests {
+
+	@TempDir
+	Path location;
+
+	private DatabaseProperties properties;
+
+	@BeforeEach
+	public void prepare() {
+		properties = new DatabaseProperties();
+		properties.setLocation(location.toString());
+	}
+
+	@Test
+	public void testRecovery() throws IOException {
+		TransactionLog transactionLog = new TransactionLog(properties);
+		Assertions.assertTrue(transactionLog.open().isEmpty(), "New log must be empty");
+
+		transactionLog.commit(record("applied"), record -> {
+		});
+		TransactionRecord failed = record("failed");
+		Assertions.assertThrows(DatabaseException.class, () -> transactionLog.commit(failed, record -> {
+			throw new DatabaseException("Table file cannot be written");
+		}));
+		TransactionRecord error = record("error");
+		Assertions.assertThrows(OutOfMemoryError.class, () -> transactionLog.commit(error, record -> {
+			throw new OutOfMemoryError("Java heap space");
+		}));
+		// Log is saved as it is right after the commit record is written, like in a crash before applied marker
+		final Path logPath = location.resolve(TransactionLog.LOG_FILE);
+		final Path crashedLogPath = location.resolve("crashed");
+		TransactionRecord interrupted = record("interrupted");
+		transactionLog.commit(interrupted, record -> copy(logPath, crashedLogPath));
+		transactionLog.close();
+		Files.move(crashedLogPath, logPath, StandardCopyOption.REPLACE_EXISTING);
+
+		List<TransactionRecord> pending = new TransactionLog(properties).open();
+		Assertions.assertEquals(Collections.singletonList(interrupted.id),
+				pending.stream().map(record -> record.id).collect(Collectors.toList()),
+				"Only interrupted transaction must be applied again, aborted ones must be skipped");
+		Assertions.assertEquals(Collections.singletonList(Collections.singletonList("interrupted")),
+				pending.get(0).tables.get("table").inserts, "Changes of the transaction are not same");
+	}
+
+	@Test
+	public void testRecoveryOfAppliedTransaction() throws IOException {
+		properties.getCompression().setEnabled(false);
+		properties.getWarmup().setEnabled(false);
+		FileDatabase database = open();
+		database.insert("table", Collections.singletonList("a"));
+		Transaction transaction = database.beginTransaction();
+		transaction.update("table", 0, Collections.singletonList("b"));
+		transaction.insert("table", Collections.singletonList("c"));
+		transaction.commit();
+		// Changes after the transaction, which must not be overwritten by it
+		database.update("table", 0, Collections.singletonList("d"));
+		database.insert("table", Collections.singletonList("e"));
+
+		// Applied marker is not flushed, so it may be lost in a crash
+		final Path logPath = location.resolve(TransactionLog.LOG_FILE);
+		Files.write(logPath, Files.readAllLines(logPath).stream()
+				.filter(line -> !line.startsWith("APPLIED"))
+				.collect(Collectors.toList()));
+
+		FileDatabase recovered = open();
+		try {
+			Assertions.assertEquals(Arrays.asList(Collections.singletonList("d"), Collections.singletonList("c"),
+					Collections.singletonList("e")), new ArrayList<>(recovered.scan("table", 0, 10, null).values()),
+					"Applied transaction must not be applied again");
+		} finally {
+			recovered.destroy();
+		}
+	}
+
+	private FileDatabase open() {
+		FileDatabase database = new FileDatabase(properties, new SnapshotStorage(properties),
+				new TransactionLog(properties), new MemoryAccountant(properties));
+		database.construct();
+		return database;
+	}
+
+	private static void copy(Path source, Path target) {
+		try {
+			Files.copy(source, target);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static TransactionRecord record(String value) {
+		TransactionRecord record = new TransactionRecord();
+		TransactionRecord.TableChanges changes = new TransactionRecord.TableChanges("table", 0);
+		changes.inserts.add(Collections.singletonList(value));
+		record.tables.put(changes.tableName, changes);
+		return record;
+	}
+
+}